@@ -0,0 +1,835 @@
+package emgsignal.v3.Acquisition;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayList;
+
+import emgsignal.v3.Decoder.FrameDecoder;
+import emgsignal.v3.SignalProcessing.BiquadCascade;
+import emgsignal.v3.SignalProcessing.FatigueTracker;
+import emgsignal.v3.SignalProcessing.FilterDesigner;
+import emgsignal.v3.SignalProcessing.LineNoiseCanceller;
+import emgsignal.v3.SignalProcessing.MovingRms;
+
+/**
+ * Worker thread that owns decoding, filtering and storage of the incoming samples.
+ * It drains the {@link FrameRingBuffer} of every connected sensor every few milliseconds
+ * and only hands decimated batches to the main thread at display rate, so a slow frame or
+ * a dialog on the UI side never holds up sample intake.
+ * Each sensor is kept as its own source with its own store. Frames carry their arrival
+ * time, so the first stored sample of every source is placed on one shared clock and the
+ * stores can be lined up to the sample afterwards, see {@link #getStartOffset(int)}.
+ * Raw samples are stored; the live plot shows the signal with mains interference removed,
+ * by a band-stop or an adaptive canceller, and its envelope, either a moving RMS or the
+ * rectified signal through a 10 Hz low-pass, both updated a frame at a time.
+ * Mean and median frequency of each channel are tracked over a sliding window as a measure
+ * of fatigue and published once per hop.
+ */
+public class AcquisitionThread extends HandlerThread {
+    public static final String TAG = "Acquisition";
+    private static final int DRAIN_INTERVAL_MS = 10;
+    private static final int RENDER_INTERVAL_MS = 33;
+    private static final int STATS_INTERVAL_MS = 1000;
+    private static final int RENDER_BATCH_SIZE = 512;
+    // Envelope modes, see setEnvelope()
+    public static final int ENVELOPE_RMS = 0;
+    public static final int ENVELOPE_LOW_PASS = 1;
+    public static final int DEFAULT_RMS_WINDOW_MS = 100;
+    // Line interference filters, see setLineFilter()
+    public static final int LINE_FILTER_BAND_STOP = 0;
+    public static final int LINE_FILTER_ADAPTIVE = 1;
+    private static final int LINE_HARMONICS = 5;
+    private static final double LINE_ADAPTATION_SECONDS = 0.2;
+    // Fatigue trend: mean and median frequency over about a second, four times a second
+    public static final int FATIGUE_WINDOW_MS = 1000;
+    public static final int FATIGUE_HOP_MS = 250;
+
+    public interface Listener {
+        // Called on the main thread. source is the index of the sensor in start order, x the
+        // sample index on the shared timeline and y holds count groups of interleaved
+        // channel values (y[i * channels + c]), envelope the envelope of each value
+        void onRenderBatch(int source, double[] x, double[] y, double[] envelope, int count);
+
+        // Called on the main thread once per hop with the mean and median frequency of each
+        // channel over the window ending at sample x; NaN while a channel is silent
+        void onFatigueUpdate(int source, double x, double[] meanFrequency, double[] medianFrequency);
+    }
+
+    // Everything kept per connected sensor
+    private class Source {
+        final String address;
+        FrameRingBuffer frameBuffer;
+        final FrameDecoder decoder = new FrameDecoder(channels, false);
+        final SequenceTracker sequenceTracker = new SequenceTracker(fs * channels);
+        final double[] lastGroup = new double[channels];
+        // Channel-interleaved, one group of channels per sample index
+        final SampleStore samples = new SampleStore();
+        // Filled gaps as (first filled sample group in samples, number of groups) pairs
+        final ArrayList<long[]> gapMarkers = new ArrayList<>();
+        long sampleIndex = 0;
+        // Samples between the start of the session and the first sample of this source
+        long offset = -1;
+        // Arrival clock time of the first sample group in samples, 0 while samples is empty
+        volatile long firstStoredNanos = 0;
+        double[] renderX = new double[RENDER_BATCH_SIZE];
+        double[] renderY = new double[RENDER_BATCH_SIZE * channels];
+        double[] renderEnvelope = new double[RENDER_BATCH_SIZE * channels];
+        int renderCount = 0;
+
+        // Live filters, one per channel
+        final BiquadCascade[] notch = new BiquadCascade[channels];
+        final LineNoiseCanceller[] canceller = new LineNoiseCanceller[channels];
+        final BiquadCascade[] envelopeFilter = new BiquadCascade[channels];
+        final MovingRms[] rms = new MovingRms[channels];
+        final FatigueTracker[] fatigue = new FatigueTracker[channels];
+        // Latest fatigue estimates per channel
+        final double[] meanFrequency = new double[channels];
+        final double[] medianFrequency = new double[channels];
+        // Slowly tracked offset the band-stopped signal is rectified around
+        final double[] baseline = new double[channels];
+        // Latest envelope value per channel, read from any thread
+        final double[] envelope = new double[channels];
+        boolean filtersPrimed = false;
+
+        Source(String address) {
+            this.address = address;
+            for (int c = 0; c < channels; c++) {
+                notch[c] = new BiquadCascade(notchSections);
+                canceller[c] = new LineNoiseCanceller(mains, fs, LINE_HARMONICS, LINE_ADAPTATION_SECONDS);
+                envelopeFilter[c] = new BiquadCascade(envelopeSections);
+                rms[c] = new MovingRms(rmsWindow);
+                fatigue[c] = new FatigueTracker(fatigueWindow, fatigueHop, fs);
+            }
+        }
+    }
+
+    private final Listener listener;
+    private final int fs;
+    private final int mains;
+    private final int channels;
+    private final int decimation;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private Handler workerHandler;
+    // Only changed on the worker, which reads it without locking
+    private final ArrayList<Source> sources = new ArrayList<>();
+    private int activeSources = 0;
+
+    private final byte[] frame = new byte[FrameRingBuffer.MAX_FRAME_SIZE];
+    private final short[] drained = new short[FrameRingBuffer.MAX_FRAME_SIZE / 2];
+    private final double[] group;
+    // Band-stopped values of group, as plotted
+    private final double[] plotGroup;
+    // Per channel scratch for filtering one frame
+    private final float[] channelIn = new float[FrameRingBuffer.MAX_FRAME_SIZE / 2];
+    private final float[][] filtered;
+    // Filtered values around their baseline, the input of the envelope and of fatigue tracking
+    private final float[][] centered;
+    private final float[][] enveloped;
+    // Envelope of the filled group being filtered, stored with the group
+    private final double[] filledEnvelope;
+    // One-pole tracking of the signal offset, with a time constant of about one second
+    private final double baselineAlpha;
+    // Only changed on the worker
+    private int envelopeMode = ENVELOPE_RMS;
+    private int rmsWindow;
+    private int lineFilter = LINE_FILTER_BAND_STOP;
+    // Time spent in filterFrame since the last stats update
+    private long filterNanos = 0;
+    private long filterSamples = 0;
+    private final int fatigueWindow;
+    private final int fatigueHop;
+    // Time spent on fatigue estimates since the last stats update
+    private long fatigueNanos = 0;
+    private long fatigueEstimates = 0;
+    // Arrival clock time of sample 0 on the shared timeline
+    private long sessionOriginNanos = 0;
+    private boolean sessionStarted = false;
+    private long lastRenderTime = 0;
+    // Batches built before the last reset() are not delivered
+    private int generation = 0;
+    private int workerGeneration = 0;
+
+    // Second-order sections of the live filters, designed for fs and shared with the cache
+    private final double[][] notchSections;
+    private final double[][] envelopeSections;
+
+    // Counters over all sources, written by the worker and read from any thread
+    private volatile long totalSamples = 0;
+    private volatile long samplesPerSecond = 0;
+    private volatile int queueDepth = 0;
+    private volatile int maxQueueDepth = 0;
+    private volatile long malformedFrames = 0;
+    private volatile long gaps = 0;
+    private volatile long missingSamples = 0;
+    private volatile long duplicateFrames = 0;
+    private volatile double filterNanosPerSample = 0;
+    private volatile double fatigueNanosPerEstimate = 0;
+    private long lastStatsTime = 0;
+    private long lastStatsSamples = 0;
+
+    /**
+     * @param fs         sampling rate of each channel, used to spot gaps from arrival times.
+     * @param mains      power line frequency the live filter removes.
+     * @param channels   number of interleaved channels in each frame.
+     * @param decimation only every decimation-th sample is sent to the listener.
+     */
+    public AcquisitionThread(Listener listener, int fs, int mains, int channels, int decimation) {
+        super(TAG);
+        this.listener = listener;
+        this.fs = fs;
+        this.mains = mains;
+        this.channels = channels;
+        this.decimation = Math.max(1, decimation);
+        group = new double[channels];
+        plotGroup = new double[channels];
+        filledEnvelope = new double[channels];
+        filtered = new float[channels][FrameRingBuffer.MAX_FRAME_SIZE / 2];
+        centered = new float[channels][FrameRingBuffer.MAX_FRAME_SIZE / 2];
+        enveloped = new float[channels][FrameRingBuffer.MAX_FRAME_SIZE / 2];
+        baselineAlpha = 1.0 / Math.max(1, fs);
+        rmsWindow = Math.max(1, DEFAULT_RMS_WINDOW_MS * fs / 1000);
+        // Rounded up to a power of 2, which the FFT transforms without Bluestein's convolution
+        fatigueWindow = Integer.highestOneBit(Math.max(1, FATIGUE_WINDOW_MS * fs / 1000) * 2 - 1);
+        fatigueHop = Math.max(1, FATIGUE_HOP_MS * fs / 1000);
+        notchSections = FilterDesigner.mainsBandStop(mains, fs);
+        envelopeSections = FilterDesigner.envelopeLowPass(fs);
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    private synchronized Handler handler() {
+        // getLooper() blocks until the thread has started
+        if (workerHandler == null) {
+            workerHandler = new Handler(getLooper());
+        }
+        return workerHandler;
+    }
+
+    /**
+     * Chooses the live envelope: ENVELOPE_RMS over windowMs, or ENVELOPE_LOW_PASS, the
+     * rectified signal through the 10 Hz low-pass. Envelopes restart from zero when the
+     * mode or the window changes.
+     */
+    public void setEnvelope(final int mode, final int windowMs) {
+        if (mode != ENVELOPE_RMS && mode != ENVELOPE_LOW_PASS)
+            throw new IllegalArgumentException("Unknown envelope mode " + mode);
+        handler().post(new Runnable() {
+            @Override
+            public void run() {
+                int window = Math.max(1, windowMs * fs / 1000);
+                if (mode == envelopeMode && window == rmsWindow) {
+                    return;
+                }
+                envelopeMode = mode;
+                rmsWindow = window;
+                for (int i = 0; i < sources.size(); i++) {
+                    Source source = sources.get(i);
+                    for (int c = 0; c < channels; c++) {
+                        source.rms[c] = new MovingRms(rmsWindow);
+                        source.envelopeFilter[c].reset(0);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Chooses how mains interference is removed: LINE_FILTER_BAND_STOP, the fixed band-stop of
+     * +-5 Hz, or LINE_FILTER_ADAPTIVE, the LMS canceller that only removes the interference
+     * itself and follows mains drift. The filter taken over starts from the current offset.
+     */
+    public void setLineFilter(final int mode) {
+        if (mode != LINE_FILTER_BAND_STOP && mode != LINE_FILTER_ADAPTIVE)
+            throw new IllegalArgumentException("Unknown line filter " + mode);
+        handler().post(new Runnable() {
+            @Override
+            public void run() {
+                if (mode == lineFilter) {
+                    return;
+                }
+                lineFilter = mode;
+                for (int i = 0; i < sources.size(); i++) {
+                    Source source = sources.get(i);
+                    for (int c = 0; c < channels; c++) {
+                        source.notch[c].reset(source.baseline[c]);
+                        source.canceller[c].reset(source.baseline[c]);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Starts draining buffer for the sensor at address. A sensor that was connected
+     * before keeps its source and its samples.
+     */
+    public void startAcquisition(final String address, final FrameRingBuffer buffer) {
+        handler().post(new Runnable() {
+            @Override
+            public void run() {
+                Source source = findSource(address);
+                if (source == null) {
+                    source = new Source(address);
+                    synchronized (sources) {
+                        sources.add(source);
+                    }
+                }
+                if (source.frameBuffer == null) {
+                    activeSources++;
+                }
+                source.frameBuffer = buffer;
+                source.frameBuffer.clear();
+                source.sequenceTracker.restart();
+                if (activeSources == 1) {
+                    lastRenderTime = SystemClock.uptimeMillis();
+                    lastStatsTime = lastRenderTime;
+                    lastStatsSamples = totalSamples;
+                    workerHandler.removeCallbacks(drainLoop);
+                    workerHandler.post(drainLoop);
+                }
+            }
+        });
+    }
+
+    // Stops the sensor at address after draining what it has queued
+    public void stopAcquisition(final String address) {
+        handler().post(new Runnable() {
+            @Override
+            public void run() {
+                Source source = findSource(address);
+                if (source != null) {
+                    stop(source);
+                }
+                if (activeSources == 0) {
+                    workerHandler.removeCallbacks(drainLoop);
+                }
+            }
+        });
+    }
+
+    public void stopAcquisition() {
+        handler().post(new Runnable() {
+            @Override
+            public void run() {
+                workerHandler.removeCallbacks(drainLoop);
+                for (int i = 0; i < sources.size(); i++) {
+                    stop(sources.get(i));
+                }
+            }
+        });
+    }
+
+    private void stop(Source source) {
+        if (source.frameBuffer == null) {
+            return;
+        }
+        drainOnce(source);
+        publishRenderBatch(sources.indexOf(source), source);
+        source.frameBuffer = null;
+        activeSources--;
+    }
+
+    /**
+     * Drops stored samples and restarts the shared timeline at 0, called from the main thread.
+     * Sources of sensors that are no longer connected are forgotten.
+     */
+    public void reset() {
+        final int gen = ++generation;
+        handler().post(new Runnable() {
+            @Override
+            public void run() {
+                workerGeneration = gen;
+                sessionStarted = false;
+                synchronized (sources) {
+                    for (int i = sources.size() - 1; i >= 0; i--) {
+                        if (sources.get(i).frameBuffer == null) {
+                            sources.remove(i);
+                        }
+                    }
+                }
+                for (int i = 0; i < sources.size(); i++) {
+                    Source source = sources.get(i);
+                    source.sampleIndex = 0;
+                    source.offset = -1;
+                    source.renderCount = 0;
+                    for (int c = 0; c < channels; c++) {
+                        source.fatigue[c].reset();
+                    }
+                }
+                clearSamples();
+            }
+        });
+    }
+
+    public void clearSamples() {
+        synchronized (sources) {
+            for (Source source : sources) {
+                synchronized (source.samples) {
+                    source.samples.clear();
+                    source.gapMarkers.clear();
+                    source.firstStoredNanos = 0;
+                }
+            }
+        }
+    }
+
+    public int getSourceCount() {
+        synchronized (sources) {
+            return sources.size();
+        }
+    }
+
+    public String getSourceAddress(int source) {
+        synchronized (sources) {
+            return sources.get(source).address;
+        }
+    }
+
+    // Samples stored over all channels and sources
+    public int getSampleCount() {
+        int count = 0;
+        synchronized (sources) {
+            for (Source source : sources) {
+                synchronized (source.samples) {
+                    count += source.samples.size();
+                }
+            }
+        }
+        return count;
+    }
+
+    public SampleStore copySamples(int source) {
+        Source s;
+        synchronized (sources) {
+            s = sources.get(source);
+        }
+        synchronized (s.samples) {
+            return s.samples.copy();
+        }
+    }
+
+    /**
+     * Gaps filled in the stored samples of source, e.g. while a dropped link was reconnected.
+     * Entry 2k is the first filled sample group of gap k and entry 2k + 1 its length.
+     */
+    public long[] getGapMarkers(int source) {
+        Source s;
+        synchronized (sources) {
+            s = sources.get(source);
+        }
+        synchronized (s.samples) {
+            long[] markers = new long[s.gapMarkers.size() * 2];
+            for (int i = 0; i < s.gapMarkers.size(); i++) {
+                markers[2 * i] = s.gapMarkers.get(i)[0];
+                markers[2 * i + 1] = s.gapMarkers.get(i)[1];
+            }
+            return markers;
+        }
+    }
+
+    // Latest envelope value of one channel of source
+    public double getEnvelope(int source, int channel) {
+        Source s;
+        synchronized (sources) {
+            s = sources.get(source);
+        }
+        synchronized (s.samples) {
+            return s.envelope[channel];
+        }
+    }
+
+    // Arrival clock time of the first stored sample of source, 0 while nothing is stored
+    public long getFirstSampleNanos(int source) {
+        Source s;
+        synchronized (sources) {
+            s = sources.get(source);
+        }
+        return s.firstStoredNanos;
+    }
+
+    /**
+     * Number of sample groups the first stored sample of source lies after the earliest first
+     * stored sample of all sources. Prepending that many samples lines the stores up, also
+     * when the sensors connected at different times or the samples were cleared mid-session.
+     */
+    public long getStartOffset(int source) {
+        long first = Long.MAX_VALUE;
+        int count = getSourceCount();
+        for (int i = 0; i < count; i++) {
+            long origin = getFirstSampleNanos(i);
+            if (origin != 0 && origin < first) {
+                first = origin;
+            }
+        }
+        long origin = getFirstSampleNanos(source);
+        if (origin == 0 || first == Long.MAX_VALUE) {
+            return 0;
+        }
+        return Math.round((origin - first) * (double) fs / 1e9);
+    }
+
+    public long getTotalSamples() {
+        return totalSamples;
+    }
+
+    public long getSamplesPerSecond() {
+        return samplesPerSecond;
+    }
+
+    // Largest number of bytes waiting in a ring buffer at the last drain
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    public int getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public long getMalformedFrames() {
+        return malformedFrames;
+    }
+
+    // Gaps in the stream, filled by interpolation
+    public long getGaps() {
+        return gaps;
+    }
+
+    public long getMissingSamples() {
+        return missingSamples;
+    }
+
+    public long getDuplicateFrames() {
+        return duplicateFrames;
+    }
+
+    // Average time the live filters took per sample over the last second, in nanoseconds
+    public double getFilterNanosPerSample() {
+        return filterNanosPerSample;
+    }
+
+    // Average time of one fatigue estimate over the last second, in nanoseconds; the hop is
+    // FATIGUE_HOP_MS per channel
+    public double getFatigueNanosPerEstimate() {
+        return fatigueNanosPerEstimate;
+    }
+
+    public long getDroppedFrames() {
+        long dropped = 0;
+        synchronized (sources) {
+            for (Source source : sources) {
+                FrameRingBuffer buffer = source.frameBuffer;
+                if (buffer != null) {
+                    dropped += buffer.getDroppedFrames();
+                }
+            }
+        }
+        return dropped;
+    }
+
+    private Source findSource(String address) {
+        for (int i = 0; i < sources.size(); i++) {
+            if (sources.get(i).address.equals(address)) {
+                return sources.get(i);
+            }
+        }
+        return null;
+    }
+
+    private final Runnable drainLoop = new Runnable() {
+        @Override
+        public void run() {
+            int depth = 0;
+            for (int i = 0; i < sources.size(); i++) {
+                Source source = sources.get(i);
+                if (source.frameBuffer != null) {
+                    depth = Math.max(depth, source.frameBuffer.size());
+                    drainOnce(source);
+                }
+            }
+            queueDepth = depth;
+            if (depth > maxQueueDepth) {
+                maxQueueDepth = depth;
+            }
+            updateCounters();
+            long now = SystemClock.uptimeMillis();
+            if (now - lastRenderTime >= RENDER_INTERVAL_MS) {
+                for (int i = 0; i < sources.size(); i++) {
+                    publishRenderBatch(i, sources.get(i));
+                }
+                lastRenderTime = now;
+            }
+            if (now - lastStatsTime >= STATS_INTERVAL_MS) {
+                updateStats(now);
+            }
+            workerHandler.postDelayed(this, DRAIN_INTERVAL_MS);
+        }
+    };
+
+    private void drainOnce(Source source) {
+        FrameRingBuffer frameBuffer = source.frameBuffer;
+        SequenceTracker sequenceTracker = source.sequenceTracker;
+        int len;
+        while ((len = frameBuffer.readFrame(frame)) >= 0) {
+            int n = source.decoder.decode(frame, len, drained, 0);
+            if (n == 0) {
+                continue;
+            }
+            int missing = sequenceTracker.onFrame(frameBuffer.getLastSequence(), frameBuffer.getLastArrivalNanos(), n);
+            if (missing < 0) {
+                continue;
+            }
+            if (source.offset < 0) {
+                placeOnTimeline(source);
+            }
+            if (!source.filtersPrimed) {
+                primeFilters(source);
+            }
+            // Only storing takes the lock; filtering and fatigue estimates stay outside it so
+            // readers of the stored samples never wait for an FFT
+            long first = sequenceTracker.getAccountedSamples() - n - missing;
+            if (missing > 0) {
+                int groups = missing / channels;
+                Log.w(TAG, source.address + ": " + groups + " samples per channel missing before sample "
+                        + source.sampleIndex);
+                for (int k = 1; k <= groups; k++) {
+                    for (int c = 0; c < channels; c++) {
+                        group[c] = sequenceTracker.fillValue(k, groups, source.lastGroup[c], drained[c]);
+                        filterSample(source, c);
+                    }
+                    synchronized (source.samples) {
+                        if (k == 1) {
+                            source.gapMarkers.add(new long[]{source.samples.size() / channels, groups});
+                        }
+                        markFirstStored(source, first + (k - 1) * channels);
+                        System.arraycopy(filledEnvelope, 0, source.envelope, 0, channels);
+                        processGroup(source);
+                    }
+                }
+            }
+            long filterStart = System.nanoTime();
+            filterFrame(source, n);
+            filterNanos += System.nanoTime() - filterStart;
+            filterSamples += n;
+            trackFatigue(source, source.offset + source.sampleIndex, n / channels);
+            synchronized (source.samples) {
+                markFirstStored(source, first + missing);
+                for (int i = 0, g = 0; i < n; i += channels, g++) {
+                    for (int c = 0; c < channels; c++) {
+                        group[c] = drained[i + c];
+                        plotGroup[c] = filtered[c][g];
+                        source.envelope[c] = enveloped[c][g];
+                    }
+                    processGroup(source);
+                }
+            }
+            totalSamples += n;
+        }
+    }
+
+    // Times the store when sample, as counted by the tracker, is the first in it; hold the lock
+    private void markFirstStored(Source source, long sample) {
+        if (source.samples.isEmpty()) {
+            // Timed now, while the tracker's clock is current at this sample
+            source.firstStoredNanos = source.sequenceTracker.getSampleNanos(sample);
+        }
+    }
+
+    // The first source to deliver a sample defines sample 0 of the shared timeline
+    private void placeOnTimeline(Source source) {
+        long origin = source.sequenceTracker.getOriginNanos();
+        if (!sessionStarted) {
+            sessionStarted = true;
+            sessionOriginNanos = origin;
+        }
+        source.offset = Math.max(0, Math.round((origin - sessionOriginNanos) * (double) fs / 1e9));
+        if (sources.size() > 1) {
+            Log.i(TAG, source.address + " starts " + source.offset + " samples into the session");
+        }
+    }
+
+    // Starts the filters in steady state on the first sample instead of from zero
+    private void primeFilters(Source source) {
+        for (int c = 0; c < channels; c++) {
+            source.notch[c].reset(drained[c]);
+            source.canceller[c].reset(drained[c]);
+            source.envelopeFilter[c].reset(0);
+            source.rms[c].reset();
+            source.fatigue[c].reset();
+            source.baseline[c] = drained[c];
+        }
+        source.filtersPrimed = true;
+    }
+
+    // Mains filter, then the envelope of the signal around its baseline, one channel at a time
+    private void filterFrame(Source source, int n) {
+        int groups = n / channels;
+        for (int c = 0; c < channels; c++) {
+            for (int i = 0, j = c; i < groups; i++, j += channels) {
+                channelIn[i] = drained[j];
+            }
+            float[] out = filtered[c];
+            if (lineFilter == LINE_FILTER_ADAPTIVE) {
+                source.canceller[c].process(channelIn, 0, out, 0, groups);
+            } else {
+                source.notch[c].process(channelIn, 0, out, 0, groups);
+            }
+            float[] around = centered[c];
+            double base = source.baseline[c];
+            for (int i = 0; i < groups; i++) {
+                base += (out[i] - base) * baselineAlpha;
+                around[i] = (float) (out[i] - base);
+            }
+            source.baseline[c] = base;
+            if (envelopeMode == ENVELOPE_RMS) {
+                source.rms[c].process(around, 0, enveloped[c], 0, groups);
+            } else {
+                for (int i = 0; i < groups; i++) {
+                    channelIn[i] = Math.abs(around[i]);
+                }
+                source.envelopeFilter[c].process(channelIn, 0, enveloped[c], 0, groups);
+            }
+        }
+    }
+
+    // Same as filterFrame for a single value of group, used for filled gaps
+    private void filterSample(Source source, int c) {
+        double y = lineFilter == LINE_FILTER_ADAPTIVE ? source.canceller[c].process(group[c])
+                : source.notch[c].process((float) group[c]);
+        source.baseline[c] += (y - source.baseline[c]) * baselineAlpha;
+        double centered = y - source.baseline[c];
+        filledEnvelope[c] = envelopeMode == ENVELOPE_RMS ? source.rms[c].process(centered)
+                : source.envelopeFilter[c].process((float) Math.abs(centered));
+        plotGroup[c] = y;
+        addFatigueSample(source, c, centered, source.offset + source.sampleIndex);
+    }
+
+    // Feeds the centered values of the frame just filtered, the first at sample x, to the fatigue trackers
+    private void trackFatigue(Source source, long x, int groups) {
+        for (int c = 0; c < channels; c++) {
+            float[] around = centered[c];
+            for (int i = 0; i < groups; i++) {
+                addFatigueSample(source, c, around[i], x + i);
+            }
+        }
+    }
+
+    // The trackers of all channels estimate on the same sample, the last one publishes
+    private void addFatigueSample(Source source, int c, double value, long x) {
+        FatigueTracker tracker = source.fatigue[c];
+        if (!tracker.add(value)) {
+            return;
+        }
+        source.meanFrequency[c] = tracker.getMeanFrequency();
+        source.medianFrequency[c] = tracker.getMedianFrequency();
+        fatigueNanos += tracker.getComputeNanos();
+        fatigueEstimates++;
+        if (c == channels - 1) {
+            publishFatigue(sources.indexOf(source), source, x);
+        }
+    }
+
+    private void publishFatigue(final int index, Source source, final double x) {
+        final double[] mean = source.meanFrequency.clone();
+        final double[] median = source.medianFrequency.clone();
+        final int gen = workerGeneration;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (gen == generation) {
+                    listener.onFatigueUpdate(index, x, mean, median);
+                }
+            }
+        });
+    }
+
+    // Stores the raw values in group and plots the filtered ones, one per channel
+    private void processGroup(Source source) {
+        for (int c = 0; c < channels; c++) {
+            source.samples.add((float) group[c]);
+            source.lastGroup[c] = group[c];
+        }
+        long x = source.offset + source.sampleIndex;
+        if (x % decimation == 0) {
+            addRenderPoint(source, x, plotGroup, source.envelope);
+        }
+        source.sampleIndex++;
+    }
+
+    private void addRenderPoint(Source source, double x, double[] y, double[] envelope) {
+        if (source.renderCount == source.renderX.length) {
+            publishRenderBatch(sources.indexOf(source), source);
+        }
+        source.renderX[source.renderCount] = x;
+        System.arraycopy(y, 0, source.renderY, source.renderCount * channels, channels);
+        System.arraycopy(envelope, 0, source.renderEnvelope, source.renderCount * channels, channels);
+        source.renderCount++;
+    }
+
+    private void publishRenderBatch(final int index, Source source) {
+        if (source.renderCount == 0) {
+            return;
+        }
+        final double[] x = source.renderX;
+        final double[] y = source.renderY;
+        final double[] envelope = source.renderEnvelope;
+        final int count = source.renderCount;
+        final int gen = workerGeneration;
+        source.renderX = new double[RENDER_BATCH_SIZE];
+        source.renderY = new double[RENDER_BATCH_SIZE * channels];
+        source.renderEnvelope = new double[RENDER_BATCH_SIZE * channels];
+        source.renderCount = 0;
+        mainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (gen == generation) {
+                    listener.onRenderBatch(index, x, y, envelope, count);
+                }
+            }
+        });
+    }
+
+    private void updateCounters() {
+        long malformed = 0, gapCount = 0, missing = 0, duplicates = 0;
+        for (int i = 0; i < sources.size(); i++) {
+            Source source = sources.get(i);
+            malformed += source.decoder.getMalformedFrames();
+            gapCount += source.sequenceTracker.getGaps();
+            missing += source.sequenceTracker.getMissingSamples();
+            duplicates += source.sequenceTracker.getDuplicateFrames();
+        }
+        malformedFrames = malformed;
+        gaps = gapCount;
+        missingSamples = missing;
+        duplicateFrames = duplicates;
+    }
+
+    private void updateStats(long now) {
+        long total = totalSamples;
+        samplesPerSecond = (total - lastStatsSamples) * 1000 / (now - lastStatsTime);
+        lastStatsSamples = total;
+        lastStatsTime = now;
+        if (filterSamples > 0) {
+            filterNanosPerSample = filterNanos / (double) filterSamples;
+            filterNanos = 0;
+            filterSamples = 0;
+        }
+        if (fatigueEstimates > 0) {
+            fatigueNanosPerEstimate = fatigueNanos / (double) fatigueEstimates;
+            fatigueNanos = 0;
+            fatigueEstimates = 0;
+        }
+        Log.d(TAG, samplesPerSecond + " samples/s from " + activeSources + " sensors, filters "
+                + Math.round(filterNanosPerSample) + " ns/sample, fatigue "
+                + Math.round(fatigueNanosPerEstimate / 1000) + " us/estimate per " + FATIGUE_HOP_MS
+                + " ms hop, max queue " + queueDepth
+                + " bytes (max " + maxQueueDepth + "), dropped frames " + getDroppedFrames()
+                + ", malformed frames " + malformedFrames + ", gaps " + gaps + " (" + missingSamples
+                + " samples), duplicate frames " + duplicateFrames);
+    }
+}
@@ -0,0 +1,156 @@
+package emgsignal.v3.Acquisition;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free single-producer/single-consumer ring of raw BLE notification frames.
+ * The GATT binder thread is the only writer and the acquisition side the only reader,
+ * so the read and write positions are published with lazySet and no lock is taken.
+ * Every frame is stored as a header (2-byte length, 4-byte sequence number, 8-byte
+ * arrival time) followed by its payload. The sequence number counts every frame offered
+ * to {@link #write(byte[], long)}, dropped ones included, so the consumer sees exactly
+ * where frames went missing.
+ */
+public class FrameRingBuffer {
+    // Largest attribute value allowed by the BLE spec
+    public static final int MAX_FRAME_SIZE = 512;
+    // Bytes the ring adds to every frame
+    public static final int HEADER_SIZE = 14;
+
+    private final byte[] buffer;
+    private final int mask;
+    private final AtomicLong writePos = new AtomicLong();
+    private final AtomicLong readPos = new AtomicLong();
+    // Only touched by the producer
+    private volatile long writtenFrames = 0;
+    private volatile long droppedFrames = 0;
+    private int nextSequence = 0;
+    // Header of the last frame read, only touched by the consumer
+    private int lastSequence = -1;
+    private long lastArrivalNanos = 0;
+
+    /**
+     * @param capacity size of the ring in bytes, rounded up to a power of 2.
+     */
+    public FrameRingBuffer(int capacity) {
+        if (capacity < HEADER_SIZE + MAX_FRAME_SIZE)
+            capacity = HEADER_SIZE + MAX_FRAME_SIZE;
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        buffer = new byte[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Called from the producer thread only. The frame is copied whole or not at all;
+     * when the consumer falls behind the frame is dropped and counted.
+     *
+     * @return true if the frame was queued.
+     */
+    public boolean write(byte[] frame, long arrivalNanos) {
+        int sequence = nextSequence++;
+        if (frame == null || frame.length == 0 || frame.length > MAX_FRAME_SIZE) {
+            droppedFrames++;
+            return false;
+        }
+        int len = frame.length;
+        long w = writePos.get();
+        long r = readPos.get();
+        if (buffer.length - (w - r) < HEADER_SIZE + len) {
+            droppedFrames++;
+            return false;
+        }
+        putLong(w, len, 2);
+        putLong(w + 2, sequence, 4);
+        putLong(w + 6, arrivalNanos, 8);
+        int start = (int) (w + HEADER_SIZE) & mask;
+        int first = Math.min(len, buffer.length - start);
+        System.arraycopy(frame, 0, buffer, start, first);
+        if (first < len) {
+            System.arraycopy(frame, first, buffer, 0, len - first);
+        }
+        writtenFrames++;
+        writePos.lazySet(w + HEADER_SIZE + len);
+        return true;
+    }
+
+    /**
+     * Copies the oldest frame into dst, which must hold at least {@link #MAX_FRAME_SIZE} bytes.
+     *
+     * @return length of the frame, or -1 if the ring is empty.
+     */
+    public int readFrame(byte[] dst) {
+        long r = readPos.get();
+        if (writePos.get() == r) {
+            return -1;
+        }
+        int len = frameLength(r);
+        lastSequence = (int) getLong(r + 2, 4);
+        lastArrivalNanos = getLong(r + 6, 8);
+        int start = (int) (r + HEADER_SIZE) & mask;
+        int first = Math.min(len, buffer.length - start);
+        System.arraycopy(buffer, start, dst, 0, first);
+        if (first < len) {
+            System.arraycopy(buffer, 0, dst, first, len - first);
+        }
+        readPos.lazySet(r + HEADER_SIZE + len);
+        return len;
+    }
+
+    // Sequence number of the last frame read
+    public int getLastSequence() {
+        return lastSequence;
+    }
+
+    // Arrival time of the last frame read, as passed to write()
+    public long getLastArrivalNanos() {
+        return lastArrivalNanos;
+    }
+
+    /**
+     * Drops everything queued so far. Called from the consumer thread only.
+     */
+    public void clear() {
+        readPos.lazySet(writePos.get());
+    }
+
+    public boolean isEmpty() {
+        return writePos.get() == readPos.get();
+    }
+
+    // Bytes currently queued, headers included
+    public int size() {
+        return (int) (writePos.get() - readPos.get());
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    public long getWrittenFrames() {
+        return writtenFrames;
+    }
+
+    public long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    private int frameLength(long pos) {
+        return (int) getLong(pos, 2);
+    }
+
+    // Big-endian, the field may wrap around the end of the ring
+    private void putLong(long pos, long value, int bytes) {
+        for (int i = bytes - 1; i >= 0; i--) {
+            buffer[(int) (pos + i) & mask] = (byte) value;
+            value >>= 8;
+        }
+    }
+
+    private long getLong(long pos, int bytes) {
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value = (value << 8) | (buffer[(int) (pos + i) & mask] & 0xff);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,120 @@
+package emgsignal.v3.Acquisition;
+
+/**
+ * Growable sample store made of fixed-size float chunks. Appending is O(1) and growing
+ * never copies samples, only the small table of chunk references.
+ * Not thread-safe, callers sharing a store between threads must lock around it.
+ */
+public class SampleStore {
+    private static final int CHUNK_SHIFT = 12;
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+    private static final int CHUNK_MASK = CHUNK_SIZE - 1;
+
+    private float[][] chunks = new float[16][];
+    private int chunkCount = 0;
+    private int size = 0;
+
+    public void add(float value) {
+        int offset = size & CHUNK_MASK;
+        if (offset == 0) {
+            ensureChunk(size >>> CHUNK_SHIFT);
+        }
+        chunks[size >>> CHUNK_SHIFT][offset] = value;
+        size++;
+    }
+
+    public void addAll(float[] src, int off, int len) {
+        while (len > 0) {
+            int offset = size & CHUNK_MASK;
+            ensureChunk(size >>> CHUNK_SHIFT);
+            int n = Math.min(len, CHUNK_SIZE - offset);
+            System.arraycopy(src, off, chunks[size >>> CHUNK_SHIFT], offset, n);
+            size += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    public float get(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+        return chunks[index >>> CHUNK_SHIFT][index & CHUNK_MASK];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Releases all chunks
+    public void clear() {
+        chunks = new float[16][];
+        chunkCount = 0;
+        size = 0;
+    }
+
+    /**
+     * Copies len samples starting at from into dst[dstOff..].
+     */
+    public void copyTo(int from, double[] dst, int dstOff, int len) {
+        if (from < 0 || len < 0 || from + len > size) {
+            throw new IndexOutOfBoundsException("Range [" + from + ", " + (from + len) + "), Size: " + size);
+        }
+        while (len > 0) {
+            float[] chunk = chunks[from >>> CHUNK_SHIFT];
+            int offset = from & CHUNK_MASK;
+            int n = Math.min(len, CHUNK_SIZE - offset);
+            for (int i = 0; i < n; i++) {
+                dst[dstOff + i] = chunk[offset + i];
+            }
+            from += n;
+            dstOff += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * De-interleaves one channel of a store holding groups of channels values.
+     */
+    public double[] channelToDoubleArray(int channel, int channels) {
+        double[] out = new double[size / channels];
+        for (int i = 0, j = channel; i < out.length; i++, j += channels) {
+            out[i] = chunks[j >>> CHUNK_SHIFT][j & CHUNK_MASK];
+        }
+        return out;
+    }
+
+    public double[] toDoubleArray() {
+        double[] out = new double[size];
+        copyTo(0, out, 0, size);
+        return out;
+    }
+
+    public SampleStore copy() {
+        SampleStore copy = new SampleStore();
+        copy.chunks = new float[chunks.length][];
+        for (int i = 0; i < chunkCount; i++) {
+            copy.chunks[i] = chunks[i].clone();
+        }
+        copy.chunkCount = chunkCount;
+        copy.size = size;
+        return copy;
+    }
+
+    private void ensureChunk(int index) {
+        if (index < chunkCount) {
+            return;
+        }
+        if (index >= chunks.length) {
+            float[][] grown = new float[chunks.length * 2][];
+            System.arraycopy(chunks, 0, grown, 0, chunkCount);
+            chunks = grown;
+        }
+        chunks[index] = new float[CHUNK_SIZE];
+        chunkCount = index + 1;
+    }
+}
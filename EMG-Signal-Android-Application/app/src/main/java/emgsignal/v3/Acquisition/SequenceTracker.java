@@ -0,0 +1,216 @@
+package emgsignal.v3.Acquisition;
+
+/**
+ * Detects missing and duplicated frames on the ingest path.
+ * Gaps are found from the frame sequence number and, for losses the sequence cannot see
+ * (e.g. over the air), by comparing the samples received against the arrival time and fs.
+ * The sensor's clock never runs at exactly fs, so the origin of the sample clock follows it
+ * both ways: the drift against fs is fitted by least squares over the last minute or so of
+ * arrivals, the origin moves along that drift, drops to every frame that arrives earlier
+ * still and slowly rises when all frames arrive later. Delivery jitter and slow drift
+ * therefore never add up to a gap; only a sudden jump of more than the tolerance does.
+ */
+public class SequenceTracker {
+    public static final int FILL_ZERO = 0;
+    public static final int FILL_INTERPOLATE = 1;
+    private static final double DEFAULT_TOLERANCE_SECONDS = 0.25;
+    // Time constant of the drift fit
+    private static final double DRIFT_SECONDS = 60;
+    // Arrivals fitted before the drift is trusted
+    private static final double MIN_DRIFT_SECONDS = 10;
+    // Largest drift followed, as a fraction of fs
+    private static final double MAX_DRIFT = 0.05;
+    // Time constant over which the origin rises to frames that all arrive later than it
+    private static final double RISE_SECONDS = 10;
+
+    private final double fs;
+    private final long toleranceSamples;
+    private final int fillMode;
+
+    private boolean started = false;
+    private int lastSequence = 0;
+    // Written by the consumer, read from any thread to align several streams
+    private volatile long originNanos = 0;
+    private long accountedSamples = 0;
+    private long firstArrivalNanos = 0;
+    private long lastArrivalNanos = 0;
+    // Exponentially weighted fit of the frame origins against arrival time, in seconds
+    private double weight = 0;
+    private double meanTime = 0;
+    private double meanOrigin = 0;
+    private double varTime = 0;
+    private double covariance = 0;
+    private double drift = 0;
+
+    private long frames = 0;
+    private long gaps = 0;
+    private long timingGaps = 0;
+    private long missingSamples = 0;
+    private long duplicateFrames = 0;
+
+    public SequenceTracker(double fs) {
+        this(fs, DEFAULT_TOLERANCE_SECONDS, FILL_INTERPOLATE);
+    }
+
+    /**
+     * @param toleranceSeconds arrival jitter accepted before a timing gap is reported.
+     * @param fillMode         FILL_ZERO or FILL_INTERPOLATE, see {@link #fillValue}.
+     */
+    public SequenceTracker(double fs, double toleranceSeconds, int fillMode) {
+        this.fs = fs;
+        this.toleranceSamples = (long) Math.ceil(toleranceSeconds * fs);
+        this.fillMode = fillMode;
+    }
+
+    /**
+     * @param sequence     sequence number of the frame, consecutive frames differ by 1.
+     * @param arrivalNanos arrival time of the frame on a monotonic clock.
+     * @param samples      number of samples decoded from the frame.
+     * @return number of samples missing right before this frame, or -1 if the frame is a
+     * duplicate and should be discarded.
+     */
+    public int onFrame(int sequence, long arrivalNanos, int samples) {
+        frames++;
+        if (!started) {
+            started = true;
+            lastSequence = sequence;
+            originNanos = arrivalNanos - toNanos(samples);
+            accountedSamples = samples;
+            firstArrivalNanos = arrivalNanos;
+            lastArrivalNanos = arrivalNanos;
+            weight = 0;
+            meanTime = 0;
+            meanOrigin = 0;
+            varTime = 0;
+            covariance = 0;
+            drift = 0;
+            fit(0, arrivalNanos, originNanos);
+            return 0;
+        }
+        int delta = sequence - lastSequence;
+        if (delta <= 0) {
+            duplicateFrames++;
+            return -1;
+        }
+        lastSequence = sequence;
+        long missing = (long) (delta - 1) * samples;
+
+        // Follow the drift since the previous frame
+        long elapsedNanos = arrivalNanos - lastArrivalNanos;
+        originNanos += Math.round(elapsedNanos * drift);
+        lastArrivalNanos = arrivalNanos;
+        long expected = (long) ((arrivalNanos - originNanos) * fs / 1e9);
+        long deficit = expected - (accountedSamples + missing + samples);
+        if (deficit > toleranceSamples && samples > 0) {
+            // Only whole frames can have been lost
+            missing += deficit / samples * samples;
+            timingGaps++;
+        }
+        // Arrival time of sample 0 if this frame had come with no delay
+        long frameOrigin = arrivalNanos - toNanos(accountedSamples + missing + samples);
+        if (frameOrigin < originNanos) {
+            originNanos = frameOrigin;
+        } else {
+            // Corrects what the drift fit missed, e.g. before it has enough arrivals
+            originNanos += Math.round((frameOrigin - originNanos) * Math.min(1, elapsedNanos / 1e9 / RISE_SECONDS));
+        }
+        fit(elapsedNanos, arrivalNanos, frameOrigin);
+
+        if (missing > 0) {
+            gaps++;
+            missingSamples += missing;
+        }
+        accountedSamples += missing + samples;
+        return (int) Math.min(missing, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Value of the k-th (1-based) of missing samples lying between previous and next.
+     */
+    public double fillValue(int k, int missing, double previous, double next) {
+        if (fillMode == FILL_ZERO) {
+            return 0;
+        }
+        return previous + (next - previous) * k / (missing + 1);
+    }
+
+    /**
+     * Arrival clock time of a sample, counted as the samples returned by and missing before
+     * {@link #onFrame}, from 0 at the start of the first frame. Accurate for samples close to
+     * the latest frame, since the drift is followed from there.
+     */
+    public long getSampleNanos(long sample) {
+        return originNanos + toNanos(sample);
+    }
+
+    // Samples received and filled in so far
+    public long getAccountedSamples() {
+        return accountedSamples;
+    }
+
+    // Seconds the origin moves later per second, positive when the sensor runs slower than fs
+    public double getDrift() {
+        return drift;
+    }
+
+    // Forgets the sequence and the sample clock, e.g. after a new connection
+    public void restart() {
+        started = false;
+    }
+
+    /**
+     * Arrival clock time of the first sample extrapolated at fs from the latest frame, i.e.
+     * sample k near the latest frame was taken at getOriginNanos() + k / fs. Only meaningful
+     * after the first frame.
+     */
+    public long getOriginNanos() {
+        return originNanos;
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getGaps() {
+        return gaps;
+    }
+
+    // Gaps found from arrival timing rather than the sequence number
+    public long getTimingGaps() {
+        return timingGaps;
+    }
+
+    public long getMissingSamples() {
+        return missingSamples;
+    }
+
+    public long getDuplicateFrames() {
+        return duplicateFrames;
+    }
+
+    private long toNanos(long samples) {
+        return (long) (samples * 1e9 / fs);
+    }
+
+    // Adds the origin seen by one frame to the drift fit. A sensor slower than fs makes the
+    // origin move later over time, so its slope is the drift; delivery delays only scatter it.
+    private void fit(long elapsedNanos, long arrivalNanos, long frameOrigin) {
+        double time = (arrivalNanos - firstArrivalNanos) / 1e9;
+        double origin = (frameOrigin - firstArrivalNanos) / 1e9;
+        weight = weight * Math.exp(-elapsedNanos / 1e9 / DRIFT_SECONDS) + 1;
+        double a = 1 / weight;
+        double dTime = time - meanTime;
+        double dOrigin = origin - meanOrigin;
+        meanTime += a * dTime;
+        meanOrigin += a * dOrigin;
+        varTime = (1 - a) * (varTime + a * dTime * dTime);
+        covariance = (1 - a) * (covariance + a * dTime * dOrigin);
+        if (time >= MIN_DRIFT_SECONDS && varTime > 0) {
+            drift = Math.max(-MAX_DRIFT, Math.min(MAX_DRIFT, covariance / varTime));
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package emgsignal.v3.BLE;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+import android.os.Handler;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.ArrayDeque;
+
+/**
+ * Runs the GATT operations of one connection one at a time. Android accepts a single
+ * outstanding write or read per gatt and silently drops the rest, so every operation waits
+ * here until the callback of the previous one has arrived, or its timeout has passed.
+ * The value to write is copied when the operation is queued, since characteristics and
+ * descriptors are shared objects and a later setValue() would overwrite it.
+ * Thread-safe: operations are queued from any thread and completed from the binder thread.
+ */
+public class GattOperationQueue {
+    public static final String TAG = "GattQueue";
+    public static final int OP_WRITE_CHARACTERISTIC = 0;
+    public static final int OP_WRITE_DESCRIPTOR = 1;
+    public static final int OP_READ_CHARACTERISTIC = 2;
+    private static final long TIMEOUT_MS = 2000;
+    // Retries when the stack refuses to start an operation or it times out
+    private static final int MAX_RETRIES = 2;
+    private static final long RETRY_DELAY_MS = 50;
+
+    // Starts operations on a connection, the BluetoothGatt outside of tests
+    interface Target {
+        boolean writeCharacteristic(BluetoothGattCharacteristic characteristic);
+
+        boolean writeDescriptor(BluetoothGattDescriptor descriptor);
+
+        boolean readCharacteristic(BluetoothGattCharacteristic characteristic);
+    }
+
+    private static class Operation {
+        final int type;
+        final BluetoothGattCharacteristic characteristic;
+        final BluetoothGattDescriptor descriptor;
+        final byte[] value;
+        final long queuedAt = SystemClock.uptimeMillis();
+        long startedAt;
+        int attempts = 0;
+
+        Operation(int type, BluetoothGattCharacteristic characteristic, BluetoothGattDescriptor descriptor, byte[] value) {
+            this.type = type;
+            this.characteristic = characteristic;
+            this.descriptor = descriptor;
+            this.value = value;
+        }
+    }
+
+    private final Handler handler;
+    private final ArrayDeque<Operation> pending = new ArrayDeque<>();
+    private Target target;
+    private Operation current;
+    // The current operation failed and waits for the retry to start it again
+    private boolean retryPending = false;
+
+    // Metrics
+    private long completed = 0;
+    private long failed = 0;
+    private long timeouts = 0;
+    private long lastLatencyMs = 0;
+    private long maxLatencyMs = 0;
+    private long totalLatencyMs = 0;
+
+    /**
+     * @param handler runs timeouts and retries, usually on the main looper.
+     */
+    public GattOperationQueue(Handler handler) {
+        this.handler = handler;
+    }
+
+    // Operations run on gatt from now on; null stops the queue
+    public void setGatt(final BluetoothGatt gatt) {
+        setTarget(gatt == null ? null : new Target() {
+            @Override
+            public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+                return gatt.writeCharacteristic(characteristic);
+            }
+
+            @Override
+            public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+                return gatt.writeDescriptor(descriptor);
+            }
+
+            @Override
+            public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+                return gatt.readCharacteristic(characteristic);
+            }
+        });
+    }
+
+    synchronized void setTarget(Target target) {
+        this.target = target;
+        next();
+    }
+
+    /**
+     * Drops the running and the pending operations, e.g. once the link is gone and their
+     * characteristics are no longer valid.
+     */
+    public synchronized void clear() {
+        cancel(timeout);
+        cancel(retry);
+        retryPending = false;
+        int dropped = pending.size() + (current != null ? 1 : 0);
+        if (dropped > 0) {
+            Log.w(TAG, "Dropping " + dropped + " GATT operations");
+            failed += dropped;
+        }
+        pending.clear();
+        current = null;
+        target = null;
+    }
+
+    public void writeCharacteristic(BluetoothGattCharacteristic characteristic, byte[] value) {
+        enqueue(new Operation(OP_WRITE_CHARACTERISTIC, characteristic, null, value.clone()));
+    }
+
+    public void writeDescriptor(BluetoothGattDescriptor descriptor, byte[] value) {
+        enqueue(new Operation(OP_WRITE_DESCRIPTOR, null, descriptor, value.clone()));
+    }
+
+    public void readCharacteristic(BluetoothGattCharacteristic characteristic) {
+        enqueue(new Operation(OP_READ_CHARACTERISTIC, characteristic, null, null));
+    }
+
+    /**
+     * Called from the gatt callback of an operation of type.
+     * Callbacks that do not match the running operation are ignored, and so are late
+     * callbacks of an attempt that timed out while its retry is pending.
+     */
+    public synchronized void onComplete(int type, int status) {
+        if (current == null || current.type != type || retryPending) {
+            return;
+        }
+        cancel(timeout);
+        cancel(retry);
+        long now = SystemClock.uptimeMillis();
+        long latency = now - current.queuedAt;
+        if (status == BluetoothGatt.GATT_SUCCESS) {
+            completed++;
+            lastLatencyMs = latency;
+            maxLatencyMs = Math.max(maxLatencyMs, latency);
+            totalLatencyMs += latency;
+            Log.d(TAG, name(type) + " done in " + (now - current.startedAt) + " ms, "
+                    + latency + " ms since queued, " + pending.size() + " waiting");
+        } else {
+            failed++;
+            Log.w(TAG, name(type) + " failed with status " + status + " after " + latency + " ms");
+        }
+        current = null;
+        next();
+    }
+
+    public synchronized int getPendingCount() {
+        return pending.size() + (current != null ? 1 : 0);
+    }
+
+    public synchronized long getCompleted() {
+        return completed;
+    }
+
+    // Operations dropped after their retries, refused by the peer or cleared
+    public synchronized long getFailed() {
+        return failed;
+    }
+
+    public synchronized long getTimeouts() {
+        return timeouts;
+    }
+
+    // Time from queuing to the callback of the last successful operation
+    public synchronized long getLastLatencyMs() {
+        return lastLatencyMs;
+    }
+
+    public synchronized long getMaxLatencyMs() {
+        return maxLatencyMs;
+    }
+
+    public synchronized long getAverageLatencyMs() {
+        return completed == 0 ? 0 : totalLatencyMs / completed;
+    }
+
+    private synchronized void enqueue(Operation operation) {
+        pending.add(operation);
+        next();
+    }
+
+    // Starts the next operation unless one is running
+    private void next() {
+        if (current != null || target == null || pending.isEmpty()) {
+            return;
+        }
+        current = pending.poll();
+        start();
+    }
+
+    private void start() {
+        current.attempts++;
+        current.startedAt = SystemClock.uptimeMillis();
+        boolean started;
+        switch (current.type) {
+            case OP_WRITE_CHARACTERISTIC:
+                current.characteristic.setValue(current.value);
+                started = target.writeCharacteristic(current.characteristic);
+                break;
+            case OP_WRITE_DESCRIPTOR:
+                current.descriptor.setValue(current.value);
+                started = target.writeDescriptor(current.descriptor);
+                break;
+            default:
+                started = target.readCharacteristic(current.characteristic);
+                break;
+        }
+        if (started) {
+            post(timeout, TIMEOUT_MS);
+        } else {
+            retryOrDrop("could not be started");
+        }
+    }
+
+    private void retryOrDrop(String reason) {
+        if (current.attempts <= MAX_RETRIES) {
+            Log.w(TAG, name(current.type) + " " + reason + ", retry " + current.attempts);
+            retryPending = true;
+            post(retry, RETRY_DELAY_MS);
+        } else {
+            Log.e(TAG, name(current.type) + " " + reason + ", dropped after " + current.attempts + " attempts");
+            failed++;
+            current = null;
+            next();
+        }
+    }
+
+    private final Runnable timeout = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (GattOperationQueue.this) {
+                if (current == null) {
+                    return;
+                }
+                timeouts++;
+                retryOrDrop("timed out after " + TIMEOUT_MS + " ms");
+            }
+        }
+    };
+
+    private final Runnable retry = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (GattOperationQueue.this) {
+                retryPending = false;
+                if (current != null && target != null) {
+                    start();
+                }
+            }
+        }
+    };
+
+    // Timeouts and retries go through these, so tests can run them by hand
+    void post(Runnable runnable, long delayMs) {
+        handler.postDelayed(runnable, delayMs);
+    }
+
+    void cancel(Runnable runnable) {
+        handler.removeCallbacks(runnable);
+    }
+
+    private static String name(int type) {
+        switch (type) {
+            case OP_WRITE_CHARACTERISTIC:
+                return "Characteristic write";
+            case OP_WRITE_DESCRIPTOR:
+                return "Descriptor write";
+            default:
+                return "Characteristic read";
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package emgsignal.v3.Decoder;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Decodes EMG notification frames into 12-bit samples. Every sample is sent as two bytes,
+ * the low 6 bits first and the high 6 bits second, so a 40-byte frame carries 20 samples.
+ * With several channels the samples are interleaved (ch0, ch1, ..., chN-1, ch0, ...) and
+ * a frame must carry whole groups of N samples.
+ * Frames of any length are accepted; nothing is allocated while decoding.
+ */
+public class FrameDecoder {
+    private static final int PAYLOAD_MASK = 0x3f;
+
+    private final int channels;
+    private final boolean strict;
+    private long frames = 0;
+    private long samples = 0;
+    private long emptyFrames = 0;
+    private long oddLengthFrames = 0;
+    private long invalidFrames = 0;
+    private long misalignedFrames = 0;
+
+    public FrameDecoder() {
+        this(1, false);
+    }
+
+    public FrameDecoder(boolean strict) {
+        this(1, strict);
+    }
+
+    /**
+     * @param channels number of interleaved channels per sample group.
+     * @param strict   reject frames where a payload byte has bit 6 or 7 set instead of
+     *                 just masking those bits off.
+     */
+    public FrameDecoder(int channels, boolean strict) {
+        if (channels < 1)
+            throw new IllegalArgumentException("At least one channel");
+        this.channels = channels;
+        this.strict = strict;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    public static int sampleCount(int frameLength) {
+        return frameLength / 2;
+    }
+
+    /**
+     * Decodes the first length bytes of frame into dst starting at dstOff.
+     * A trailing odd byte is ignored and the frame counted as malformed.
+     *
+     * @return number of samples written, 0 if the frame was rejected.
+     */
+    public int decode(byte[] frame, int length, short[] dst, int dstOff) {
+        frames++;
+        if (length <= 0) {
+            emptyFrames++;
+            return 0;
+        }
+        int n = sampleCount(length);
+        if (n % channels != 0) {
+            misalignedFrames++;
+            return 0;
+        }
+        if (dstOff + n > dst.length)
+            throw new IllegalArgumentException("Destination too small");
+        if ((length & 1) != 0) {
+            oddLengthFrames++;
+        }
+        int bad = 0;
+        for (int i = 0, j = 0; i < n; i++, j += 2) {
+            int low = frame[j];
+            int high = frame[j + 1];
+            bad |= (low | high) & ~PAYLOAD_MASK;
+            dst[dstOff + i] = (short) ((low & PAYLOAD_MASK) | (high & PAYLOAD_MASK) << 6);
+        }
+        if ((bad & 0xff) != 0) {
+            invalidFrames++;
+            if (strict) {
+                return 0;
+            }
+        }
+        samples += n;
+        return n;
+    }
+
+    /**
+     * Decodes the remaining bytes of frame, leaving its position at the limit.
+     */
+    public int decode(ByteBuffer frame, short[] dst, int dstOff) {
+        frames++;
+        int length = frame.remaining();
+        if (length <= 0) {
+            emptyFrames++;
+            return 0;
+        }
+        int n = sampleCount(length);
+        if (n % channels != 0) {
+            misalignedFrames++;
+            frame.position(frame.limit());
+            return 0;
+        }
+        if (dstOff + n > dst.length)
+            throw new IllegalArgumentException("Destination too small");
+        if ((length & 1) != 0) {
+            oddLengthFrames++;
+        }
+        int bad = 0;
+        int p = frame.position();
+        for (int i = 0; i < n; i++, p += 2) {
+            int low = frame.get(p);
+            int high = frame.get(p + 1);
+            bad |= (low | high) & ~PAYLOAD_MASK;
+            dst[dstOff + i] = (short) ((low & PAYLOAD_MASK) | (high & PAYLOAD_MASK) << 6);
+        }
+        frame.position(frame.limit());
+        if ((bad & 0xff) != 0) {
+            invalidFrames++;
+            if (strict) {
+                return 0;
+            }
+        }
+        samples += n;
+        return n;
+    }
+
+    public long getFrames() {
+        return frames;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getEmptyFrames() {
+        return emptyFrames;
+    }
+
+    public long getOddLengthFrames() {
+        return oddLengthFrames;
+    }
+
+    // Frames with bits set outside the 6-bit payload, rejected only in strict mode
+    public long getInvalidFrames() {
+        return invalidFrames;
+    }
+
+    // Frames not holding a whole number of sample groups, always rejected
+    public long getMisalignedFrames() {
+        return misalignedFrames;
+    }
+
+    public long getMalformedFrames() {
+        return emptyFrames + oddLengthFrames + invalidFrames + misalignedFrames;
+    }
+
+    public void resetCounters() {
+        frames = 0;
+        samples = 0;
+        emptyFrames = 0;
+        oddLengthFrames = 0;
+        invalidFrames = 0;
+        misalignedFrames = 0;
+    }
+}
@@ -53,6 +53,7 @@ import com.jjoe64.graphview.series.LineGraphSeries;
 import java.io.File;
 import java.util.ArrayList;
 
+import emgsignal.v3.Acquisition.AcquisitionThread;
 import emgsignal.v3.BLE.Constants;
 import emgsignal.v3.BLE.DeviceListActivity;
 import emgsignal.v3.Database.Add_Sensor_Activity;
@@ -63,7 +64,6 @@ import emgsignal.v3.Database.UserFormat;
 import emgsignal.v3.SavedDataProcessing.ExternalStorageUtil;
 import emgsignal.v3.SavedDataProcessing.ListFolderActivity;
 import emgsignal.v3.SavedDataProcessing.SaveData;
-import emgsignal.v3.SignalProcessing.IIR_Filter;
 
 
 public class MainActivity extends AppCompatActivity
@@ -74,18 +74,27 @@ public class MainActivity extends AppCompatActivity
     private static final int REQUEST_ENABLE_BT = 2;
     private static final int UART_PROFILE_CONNECTED = 20;
     private static final int UART_PROFILE_DISCONNECTED = 21;
+    // Only every RENDER_DECIMATION-th sample is plotted live
+    private static final int RENDER_DECIMATION = 4;
+    // Top of the second scale, which shows the fatigue trend
+    private static final int FATIGUE_MAX_HZ = 250;
+    private static final int[] CHANNEL_COLORS = {Color.RED, Color.BLUE, Color.GREEN, Color.MAGENTA,
+            Color.CYAN, Color.BLACK, Color.YELLOW, Color.GRAY};
     private final SaveData saveData = new SaveData();
-    byte[] txValue;
     int fs = 1000;
-    double[] emg = new double[30];
+    // Power line frequency removed by the live filter, 60 in the Americas
+    int mains = 50;
+    // AcquisitionThread.LINE_FILTER_ADAPTIVE keeps EMG energy near the mains frequency
+    int lineFilter = AcquisitionThread.LINE_FILTER_BAND_STOP;
+    // Live envelope plotted over each channel
+    int envelopeMode = AcquisitionThread.ENVELOPE_RMS;
+    int rmsWindowMs = AcquisitionThread.DEFAULT_RMS_WINDOW_MS;
+    // Interleaved EMG channels sent by the sensor
+    int channels = 1;
     boolean isRunning = false;
     boolean isSaving = false;
-    ArrayList<Double> data1Save = new ArrayList<>();
-    IIR_Filter filter = new IIR_Filter();
-    double[] filter_input1 = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
-    double[] filter_output1 = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
-    double[] filter_input_for_envelope = {0, 0, 0, 0, 0};
-    double[] filter_output_for_envelope = {0, 0, 0, 0};
+    // Owned by the service, so the recording outlives this activity
+    AcquisitionThread acquisition;
     long timeInMilliseconds = 0L;
     long timeSwapBuff = 0L;
     long updatedTime = 0L;
@@ -96,7 +105,11 @@ public class MainActivity extends AppCompatActivity
     private BluetoothAdapter mBtAdapter = null;   // The BluetoothAdapter is required for any and all Bluetooth activity
     private Button btnConnectDisconnect, btnSaveData, btnReset, btnSendTime;
     private DeviceListActivity deviceListActivity;
-    private LineGraphSeries<DataPoint> series_maternal;
+    // One live series per channel of every sensor, index source * channels + channel
+    private final ArrayList<LineGraphSeries<DataPoint>> series_maternal = new ArrayList<>();
+    private final ArrayList<LineGraphSeries<DataPoint>> series_envelope = new ArrayList<>();
+    // Median frequency of each channel on the second scale, same index
+    private final ArrayList<LineGraphSeries<DataPoint>> series_fatigue = new ArrayList<>();
     private double lastX1 = 0;
     private TextView timerValue;
     private final Handler customHandler = new Handler();
@@ -111,17 +124,24 @@ public class MainActivity extends AppCompatActivity
         public void onReceive(Context context, final Intent intent) {
             String action = intent.getAction();
 
+            final String address = intent.getStringExtra(UartService.EXTRA_ADDRESS);
+
             if (action.equals(UartService.ACTION_GATT_CONNECTED)) {
                 runOnUiThread(new Runnable() {
                     public void run() {
-                        Log.d(TAG, "UART_CONNECT_MSG");
+                        Log.d(TAG, "UART_CONNECT_MSG " + address);
                         btnConnectDisconnect.setText("Disconnect");
+                        mState = UART_PROFILE_CONNECTED;
+                        if (intent.getBooleanExtra(UartService.EXTRA_RECONNECTED, false)) {
+                            // Same ring and source, the dropout shows up as a filled gap
+                            long latency = intent.getLongExtra(UartService.EXTRA_RECONNECT_LATENCY_MS, 0);
+                            Toast.makeText(getApplicationContext(), "Reconnected after " + latency + " ms", Toast.LENGTH_SHORT).show();
+                            return;
+                        }
 
                         if (!isSaving) {
                             Toast.makeText(getApplicationContext(), "Connected", Toast.LENGTH_LONG).show();
                         }
-                        mState = UART_PROFILE_CONNECTED;
-
 
                     }
                 });
@@ -131,78 +151,55 @@ public class MainActivity extends AppCompatActivity
             if (action.equals(UartService.ACTION_GATT_DISCONNECTED)) {
                 runOnUiThread(new Runnable() {
                     public void run() {
-                        Log.d(TAG, "UART_DISCONNECT_MSG");
-                        btnConnectDisconnect.setText("Connect");
+                        Log.d(TAG, "UART_DISCONNECT_MSG " + address);
                         if (!isSaving) {
                             Toast.makeText(getApplicationContext(), "Disconnected", Toast.LENGTH_LONG).show();
                         }
-                        mService.close();
-                        mState = UART_PROFILE_DISCONNECTED;
-                        isRunning = false;
+                        mService.close(address);
+                        // Other sensors may still be streaming
+                        if (mService.getConnectedAddresses().isEmpty()) {
+                            btnConnectDisconnect.setText("Connect");
+                            mState = UART_PROFILE_DISCONNECTED;
+                            isRunning = false;
+                        }
                     }
                 });
             }
 
 
-            //*********************//
-            if (action.equals(UartService.ACTION_GATT_SERVICES_DISCOVERED)) {
-                mService.enableTXNotification();
-                Log.i(TAG, "onReceive: ACTION_GATT_SERVICES_DISCOVERED");
-                dialogMode();
+            if (action.equals(UartService.ACTION_GATT_RECONNECTING)) {
+                runOnUiThread(new Runnable() {
+                    public void run() {
+                        Log.d(TAG, "UART_RECONNECTING_MSG " + address);
+                        Toast.makeText(getApplicationContext(), "Connection lost, reconnecting", Toast.LENGTH_SHORT).show();
+                    }
+                });
+            }
 
+            //*********************//
+            if (action.equals(UartService.ACTION_MTU_CHANGED)) {
+                int mtu = intent.getIntExtra(UartService.EXTRA_MTU, UartService.DEFAULT_MTU);
+                Log.i(TAG, "onReceive: " + address + " MTU " + mtu + ", up to " + (mtu - 3) / 2 + " samples per notification");
             }
 
             //*********************//
-            // ham nay la ham nhan a xu l
-            if (action.equals(UartService.ACTION_DATA_AVAILABLE)) {
-                txValue = intent.getByteArrayExtra(UartService.EXTRA_DATA);
-
-                //firstDataBuffer = new double[3000];
-
-
-                for (int i = 0; i < 20; i++) {
-                    emg[i] = (txValue[i * 2] & 0xff & 0x3f) + (txValue[i * 2 + 1] & 0xff & 0x3f) * 64;
-
-                    //emg[i] = (txValue[i*4+2]&0xff&0x3f) + (txValue[i*4+3]&0xff&0x3f)*64;
-                    // for 50Hz filter
-                    /*filter_input1 = filter.update_input_filter_array50Hz(filter_input1, emg[i]);
-                    double filtered_point_emg = filter.filter50Hz(filter_input1, filter_output1);
-                    filter_output1 = filter.update_output_filter_array50Hz(filter_output1, filtered_point_emg);*/
-
-                    /*filtered_point_emg = filtered_point_emg-1650;
-                    if(filtered_point_emg<0)
-                    {
-                        filtered_point_emg=-filtered_point_emg;
-                    }*/
-                    // for envelope low pass 10Hz
-                    /*filter.update_input_filter_array10Hz(filter_input_for_envelope,filtered_point_emg);
-                    double filter_out_putpoint_envelope=filter.filter10Hz(filter_input_for_envelope,filter_output_for_envelope);
-                    filter_output_for_envelope=filter.update_output_filter_array10Hz(filter_output_for_envelope,filter_out_putpoint_envelope);
-
-                    // IIR Bandpass notchpass filter
-                    filter_out_putpoint_envelope = filter_out_putpoint_envelope/1000;*/
-                    // fill save array for EMG signal raw emgsignal.v3.data
-
-                    // plot the filtered emgsignal.v3.data points or raw emgsignal.v3.data
-                    /*
-                    Log.d(TAG, lastX1++ + ", " + filter_out_putpoint_envelope);*/
-                    /*data1Save.add(filter_out_putpoint_envelope);
-                    EMG_series.add(filter_out_putpoint_envelope);*/
-
-                    data1Save.add(emg[i]);
-                    lastX1 = lastX1 + 1 / fs;
-                    series_maternal.appendData(new DataPoint(lastX1, emg[i]), true, 10000);
-                    Log.d(TAG, lastX1 + ", " + emg[i]);
-                    lastX1++;
+            if (action.equals(UartService.ACTION_GATT_SERVICES_DISCOVERED)) {
+                mService.enableTXNotification(address);
+                Log.i(TAG, "onReceive: ACTION_GATT_SERVICES_DISCOVERED " + address);
+                if (!intent.getBooleanExtra(UartService.EXTRA_RECONNECTED, false)) {
+                    dialogMode(address);
+                } else if (mode.equals("realtime")) {
+                    // Put the sensor back into the mode it was streaming in
+                    mService.writeRXCharacteristic(address, "r");
                 }
 
-
             }
+
             //*********************//
             if (action.equals(UartService.DEVICE_DOES_NOT_SUPPORT_UART)) {
                 if (!isSaving) {
                     showMessage("Device doesn't support UART. Disconnecting");
-                    mService.disconnect();
+                    mService.disconnect(address);
                 }
             }
         }
@@ -215,7 +212,13 @@ public class MainActivity extends AppCompatActivity
             if (!mService.initialize()) {
                 Log.e(TAG, "Unable to initialize Bluetooth");
                 finish();
+                return;
             }
+            acquisition = mService.openSession(fs, mains, channels, RENDER_DECIMATION);
+            acquisition.setLineFilter(lineFilter);
+            acquisition.setEnvelope(envelopeMode, rmsWindowMs);
+            mService.setRenderListener(renderListener);
+            restoreSessionState();
         }
 
         public void onServiceDisconnected(ComponentName classname) {
@@ -224,6 +227,27 @@ public class MainActivity extends AppCompatActivity
 
         }
     };
+    private final AcquisitionThread.Listener renderListener = new AcquisitionThread.Listener() {
+        @Override
+        public void onRenderBatch(int source, double[] x, double[] y, double[] envelope, int count) {
+            for (int i = 0; i < count; i++) {
+                lastX1 = Math.max(lastX1, x[i]);
+                for (int c = 0; c < channels; c++) {
+                    seriesFor(source, c).appendData(new DataPoint(x[i], y[i * channels + c]), true, 10000 / RENDER_DECIMATION);
+                    envelopeSeriesFor(source, c).appendData(new DataPoint(x[i], envelope[i * channels + c]), true, 10000 / RENDER_DECIMATION);
+                }
+            }
+        }
+
+        @Override
+        public void onFatigueUpdate(int source, double x, double[] meanFrequency, double[] medianFrequency) {
+            for (int c = 0; c < channels; c++) {
+                if (!Double.isNaN(medianFrequency[c])) {
+                    fatigueSeriesFor(source, c).appendData(new DataPoint(x, medianFrequency[c]), true, 10000 / AcquisitionThread.FATIGUE_HOP_MS);
+                }
+            }
+        }
+    };
     private final Runnable updateTimerThread = new Runnable() {
 
         public void run() {
@@ -241,7 +265,9 @@ public class MainActivity extends AppCompatActivity
         final IntentFilter intentFilter = new IntentFilter();
         intentFilter.addAction(UartService.ACTION_GATT_CONNECTED);
         intentFilter.addAction(UartService.ACTION_GATT_DISCONNECTED);
+        intentFilter.addAction(UartService.ACTION_GATT_RECONNECTING);
         intentFilter.addAction(UartService.ACTION_GATT_SERVICES_DISCOVERED);
+        intentFilter.addAction(UartService.ACTION_MTU_CHANGED);
         intentFilter.addAction(UartService.ACTION_DATA_AVAILABLE);
         intentFilter.addAction(UartService.DEVICE_DOES_NOT_SUPPORT_UART);
         return intentFilter;
@@ -322,25 +348,39 @@ public class MainActivity extends AppCompatActivity
                 }
             }
         });
+        // Long press while connected adds another sensor to the recording
+        btnConnectDisconnect.setOnLongClickListener(new View.OnLongClickListener() {
+            @Override
+            public boolean onLongClick(View v) {
+                if (mState != UART_PROFILE_CONNECTED || !mBtAdapter.isEnabled()) {
+                    return false;
+                }
+                Intent newIntent = new Intent(MainActivity.this, DeviceListActivity.class);
+                startActivityForResult(newIntent, REQUEST_SELECT_DEVICE);
+                return true;
+            }
+        });
 
         // Handle Save emgsignal.v3.data function
         btnSaveData.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View view) {
-                if (data1Save.size() == 0) {
+                if (acquisition == null || acquisition.getSampleCount() == 0) {
                     Toast.makeText(MainActivity.this, "No EMG signal data available yet", Toast.LENGTH_SHORT).show();
                 } else {
                     if (btnSaveData.getText().equals("Save")) {
-                        data1Save.clear();
+                        acquisition.clearSamples();
                         btnSaveData.setText("Saving");
                         isSaving = true;
                         startTime = SystemClock.uptimeMillis();
+                        mService.setRecordingStartTime(startTime);
                         customHandler.postDelayed(updateTimerThread, 0);
 
 
                     } else {
                         timeSwapBuff = 0;
                         customHandler.removeCallbacks(updateTimerThread);
+                        mService.setRecordingStartTime(0);
                         mService.disconnect();
                         btnConnectDisconnect.setText("Connect");
                         btnSaveData.setText("Save");
@@ -372,27 +412,63 @@ public class MainActivity extends AppCompatActivity
     private void resetData() {
         isRunning = false;
         isSaving = false;
-        data1Save.clear();
+        if (mService != null) {
+            mService.setRecordingStartTime(0);
+        }
+        if (acquisition != null) {
+            acquisition.reset();
+        }
         lastX1 = 0;
-        series_maternal.resetData(new DataPoint[]{
-                new DataPoint(lastX1, 0)
-        });
+        for (LineGraphSeries<DataPoint> series : series_maternal) {
+            series.resetData(new DataPoint[]{
+                    new DataPoint(lastX1, 0)
+            });
+        }
+        for (LineGraphSeries<DataPoint> series : series_envelope) {
+            series.resetData(new DataPoint[]{
+                    new DataPoint(lastX1, 0)
+            });
+        }
         initGraphMaternal();
         timeSwapBuff = 0;
         customHandler.removeCallbacks(updateTimerThread);
         timerValue.setText("00 sec");
     }
 
+    // Picks up a session that kept running in the service while this activity was gone
+    private void restoreSessionState() {
+        if (!mService.getConnectedAddresses().isEmpty()) {
+            btnConnectDisconnect.setText("Disconnect");
+            mState = UART_PROFILE_CONNECTED;
+            isRunning = true;
+        }
+        long recordingStart = mService.getRecordingStartTime();
+        if (recordingStart > 0) {
+            isSaving = true;
+            btnSaveData.setText("Saving");
+            startTime = recordingStart;
+            customHandler.post(updateTimerThread);
+        }
+    }
+
     //Create graph
     private void initGraphMaternal() {
         // we get graph view instance
         GraphView graph = findViewById(R.id.realtime_chart);
         graph.setTitleColor(Color.BLUE);
         graph.setTitle("Real time Signal");
-        series_maternal = new LineGraphSeries<>();
-        series_maternal.setColor(Color.RED);
-        series_maternal.setThickness(2);
-        graph.addSeries(series_maternal);
+        graph.removeAllSeries();
+        graph.getSecondScale().removeAllSeries();
+        series_maternal.clear();
+        series_envelope.clear();
+        series_fatigue.clear();
+        for (int c = 0; c < channels; c++) {
+            seriesFor(0, c);
+            envelopeSeriesFor(0, c);
+            fatigueSeriesFor(0, c);
+        }
+        graph.getSecondScale().setMinY(0);
+        graph.getSecondScale().setMaxY(FATIGUE_MAX_HZ);
 
         Viewport viewport = graph.getViewport();
         viewport.setXAxisBoundsManual(true);
@@ -422,6 +498,55 @@ public class MainActivity extends AppCompatActivity
         });
     }
 
+    // Series of one channel of a sensor, created the first time the sensor sends data
+    private LineGraphSeries<DataPoint> seriesFor(int source, int channel) {
+        return seriesFor(series_maternal, source, channel, false);
+    }
+
+    // Envelope of the same channel, drawn thicker in the same colour
+    private LineGraphSeries<DataPoint> envelopeSeriesFor(int source, int channel) {
+        return seriesFor(series_envelope, source, channel, true);
+    }
+
+    // Median frequency trend of the same channel in Hz, on the second scale
+    private LineGraphSeries<DataPoint> fatigueSeriesFor(int source, int channel) {
+        int index = source * channels + channel;
+        if (index >= series_fatigue.size()) {
+            GraphView graph = findViewById(R.id.realtime_chart);
+            for (int i = series_fatigue.size(); i <= index; i++) {
+                LineGraphSeries<DataPoint> series = new LineGraphSeries<>();
+                series.setColor(CHANNEL_COLORS[i % CHANNEL_COLORS.length]);
+                series.setThickness(2);
+                series.setDrawDataPoints(true);
+                series.setDataPointsRadius(4);
+                series.setTitle((i < channels ? "Channel " + (i % channels + 1)
+                        : "Sensor " + (i / channels + 1) + " channel " + (i % channels + 1))
+                        + " median frequency");
+                graph.getSecondScale().addSeries(series);
+                series_fatigue.add(series);
+            }
+        }
+        return series_fatigue.get(index);
+    }
+
+    private LineGraphSeries<DataPoint> seriesFor(ArrayList<LineGraphSeries<DataPoint>> list, int source, int channel, boolean envelope) {
+        int index = source * channels + channel;
+        if (index >= list.size()) {
+            GraphView graph = findViewById(R.id.realtime_chart);
+            for (int i = list.size(); i <= index; i++) {
+                LineGraphSeries<DataPoint> series = new LineGraphSeries<>();
+                series.setColor(CHANNEL_COLORS[i % CHANNEL_COLORS.length]);
+                series.setThickness(envelope ? 4 : 2);
+                series.setTitle((i < channels ? "Channel " + (i % channels + 1)
+                        : "Sensor " + (i / channels + 1) + " channel " + (i % channels + 1))
+                        + (envelope ? " envelope" : ""));
+                graph.addSeries(series);
+                list.add(series);
+            }
+        }
+        return list.get(index);
+    }
+
     private void service_init() {
         Intent bindIntent = new Intent(this, UartService.class);
         bindService(bindIntent, mServiceConnection, Context.BIND_AUTO_CREATE);
@@ -443,8 +568,15 @@ public class MainActivity extends AppCompatActivity
         } catch (Exception ignore) {
             Log.e(TAG, ignore.toString());
         }
+        customHandler.removeCallbacks(updateTimerThread);
+        if (mService != null) {
+            mService.setRenderListener(null);
+            // A running recording keeps the service in the foreground
+            if (!mService.isSessionActive()) {
+                mService.stopSelf();
+            }
+        }
         unbindService(mServiceConnection);
-        mService.stopSelf();
         mService = null;
 
     }
@@ -516,7 +648,7 @@ public class MainActivity extends AppCompatActivity
                     //resetData();
                     isRunning = true;
                 }
-                if (resultCode == Activity.RESULT_CANCELED) {
+                if (resultCode == Activity.RESULT_CANCELED && mState != UART_PROFILE_CONNECTED) {
                     resetData();
                     Toast.makeText(MainActivity.this, "No device choosen", Toast.LENGTH_SHORT).show();
                 }
@@ -669,7 +801,7 @@ public class MainActivity extends AppCompatActivity
     }
 
     /* Dialog to choose mode for testing: Realtime or Pilot mode */
-    public void dialogMode() {
+    public void dialogMode(final String address) {
         final Dialog dialog = new Dialog(this);
         dialog.setContentView(R.layout.mode_options);
         Window window = dialog.getWindow();
@@ -682,7 +814,7 @@ public class MainActivity extends AppCompatActivity
             @Override
             public void onClick(View view) {
                 if (mService != null) {
-                    mService.writeRXCharacteristic("r");
+                    mService.writeRXCharacteristic(address, "r");
                     Log.i(TAG, "onClick: Plot real-time signal");
                     dialog.dismiss();
                     mode = "realtime";
@@ -693,7 +825,7 @@ public class MainActivity extends AppCompatActivity
             @Override
             public void onClick(View view) {
                 if (mService != null) {
-                    mService.writeRXCharacteristic("p" + saveData.getDate());
+                    mService.writeRXCharacteristic(address, "p" + saveData.getDate());
                     Log.i(TAG, "onClick: Pilot Mode");
                     dialog.dismiss();
                 }
@@ -856,10 +988,17 @@ public class MainActivity extends AppCompatActivity
                 if ((!selectedUser.equals("Select testee")) && (!selectedSensor.equals("Select sensor")) && (!temp.equals("")) && (!humid.equals(""))) {
                     UserFormat selectedUserObject = dbManager.getUser(selectedUser);
                     SensorFormat selectedSensorObject = dbManager.getSensor(selectedSensor);
-                    saveData.save(data1Save, selectedUser, selectedSensor,
-                            selectedUserObject.getHeight() + "cm, " + selectedUserObject.getWeight() + "kg, R(body) = " + selectedUserObject.getBody_res() + "KOhm",
-                            "M= " + selectedSensorObject.getResMid() + ", E= " + selectedSensorObject.getResEnd() + ", R= " + selectedSensorObject.getResRef() + "KOhm",
-                            "Temperature: " + temp + "°C, RH: " + humid + "%", notes);
+                    // One file per sensor, the offset lines the recordings up to the sample
+                    int sources = acquisition.getSourceCount();
+                    for (int i = 0; i < sources; i++) {
+                        saveData.save(acquisition.copySamples(i), channels,
+                                sources > 1 ? acquisition.getSourceAddress(i) + ", offset " + acquisition.getStartOffset(i) + " samples" : null,
+                                acquisition.getGapMarkers(i),
+                                selectedUser, selectedSensor,
+                                selectedUserObject.getHeight() + "cm, " + selectedUserObject.getWeight() + "kg, R(body) = " + selectedUserObject.getBody_res() + "KOhm",
+                                "M= " + selectedSensorObject.getResMid() + ", E= " + selectedSensorObject.getResEnd() + ", R= " + selectedSensorObject.getResRef() + "KOhm",
+                                "Temperature: " + temp + "°C, RH: " + humid + "%", sources > 1 ? notes + "_sensor" + (i + 1) : notes);
+                    }
                     Toast.makeText(MainActivity.this, "Data saved successfully", Toast.LENGTH_SHORT).show();
                     resetData();
                     dialog.dismiss();
@@ -27,16 +27,26 @@ import java.util.Arrays;
 
 import emgsignal.v3.R;
 import emgsignal.v3.SignalProcessing.Detrend;
+import emgsignal.v3.SignalProcessing.FilterDesigner;
 import emgsignal.v3.SignalProcessing.Progressing;
+import emgsignal.v3.SignalProcessing.ZeroPhaseFilter;
 
 
 public class ListFilesActivity extends AppCompatActivity {
 
     private static final int PERMISSION_REQUEST_CODE = 100;
+    // Recordings are sampled as in MainActivity.fs, the same rate TabView assumes
+    private static final double FS = 1000;
+    // Zero-phase EMG band applied before analysis
+    private static final int BAND_ORDER = 4;
+    private static final double BAND_LOW = 20;
+    private static final double BAND_HIGH = 450;
     ArrayList<String> myList;
     ListView listView;
     String nameFolder;
     private ArrayAdapter<String> adapter;
+    // Reads and filters the recording picked last
+    private Thread loadThread;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -81,22 +91,28 @@ public class ListFilesActivity extends AppCompatActivity {
 
         listView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
-            public void onItemClick(AdapterView<?> parent, View view, int position, long id) {
+            public void onItemClick(AdapterView<?> parent, View view, final int position, long id) {
 
-                File file = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/EMG_Data/" + nameFolder + "/" + myList.get(position));
-                double[] data = Progressing.readFile(file);;
-
-                for (int i = 0; i < data.length; i++) { ;
-                    data[i] = data[i] / 101;
+                final File file = new File(Environment.getExternalStorageDirectory().getAbsolutePath() + "/EMG_Data/" + nameFolder + "/" + myList.get(position));
+                int channels = Progressing.readChannelCount(file);
+                if (channels == 1) {
+                    openFile(file, myList.get(position), 0);
+                } else {
+                    //Multi-channel recording, let the user pick the channel to analyse
+                    String[] items = new String[channels];
+                    for (int c = 0; c < channels; c++) {
+                        items[c] = "Channel " + (c + 1);
+                    }
+                    new AlertDialog.Builder(ListFilesActivity.this)
+                            .setTitle("Select channel")
+                            .setItems(items, new DialogInterface.OnClickListener() {
+                                @Override
+                                public void onClick(DialogInterface dialog, int which) {
+                                    openFile(file, myList.get(position), which);
+                                }
+                            })
+                            .show();
                 }
-                data = Detrend.detrend(data);
-
-                Log.i("CHECKING LONG", "long data " + data.length);
-                Intent intent = new Intent(ListFilesActivity.this, TabView.class);
-                intent.putExtra("NameFile", myList.get(position) + "");
-                intent.putExtra("TimeData", data);
-                intent.putExtra("Length", data.length);
-                startActivity(intent);
             }
         });
 
@@ -146,6 +162,51 @@ public class ListFilesActivity extends AppCompatActivity {
     }
 
 
+    @Override
+    protected void onDestroy() {
+        if (loadThread != null) {
+            loadThread.interrupt();
+        }
+        super.onDestroy();
+    }
+
+    // Reads, detrends and band-passes the recording off the UI thread, then opens it in TabView
+    private void openFile(final File file, final String name, final int channel) {
+        if (loadThread != null && loadThread.isAlive()) {
+            return;
+        }
+        Toast.makeText(getApplicationContext(), R.string.analysing, Toast.LENGTH_SHORT).show();
+        loadThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                double[] raw = Progressing.readFile(file, channel);
+                for (int i = 0; i < raw.length; i++) {
+                    raw[i] = raw[i] / 101;
+                }
+                final double[] data = Detrend.detrend(raw);
+                new ZeroPhaseFilter(FilterDesigner.butterworthBandPass(BAND_ORDER, BAND_LOW, BAND_HIGH, FS)).filter(data);
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (isFinishing()) {
+                            return;
+                        }
+                        Log.i("CHECKING LONG", "long data " + data.length);
+                        Intent intent = new Intent(ListFilesActivity.this, TabView.class);
+                        intent.putExtra("NameFile", name + "");
+                        intent.putExtra("TimeData", data);
+                        intent.putExtra("Length", data.length);
+                        startActivity(intent);
+                    }
+                });
+            }
+        }, "LoadRecording");
+        loadThread.start();
+    }
+
     private boolean checkPermission() {
         int result = ContextCompat.checkSelfPermission(ListFilesActivity.this, android.Manifest.permission.READ_EXTERNAL_STORAGE);
         return result == PackageManager.PERMISSION_GRANTED;
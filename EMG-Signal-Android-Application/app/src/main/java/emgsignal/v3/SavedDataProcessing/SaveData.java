@@ -9,13 +9,21 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStreamWriter;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Locale;
 
+import emgsignal.v3.Acquisition.SampleStore;
+
 public class SaveData extends AppCompatActivity {
 
-    public void save(final ArrayList<Double> dataSave, String username, String sensor,
+    /**
+     * Writes one line per sample index; with several channels the line holds the
+     * comma-separated value of every channel.
+     *
+     * @param device written as a header line when recording from several sensors, null otherwise.
+     * @param gaps   filled gaps as (first line, number of lines) pairs, listed in the header.
+     */
+    public void save(final SampleStore dataSave, int channels, String device, long[] gaps, String username, String sensor,
                      String testee_info, String sensor_res, String environment, String notes) {
 
         File sdCard = Environment.getExternalStorageDirectory();
@@ -42,10 +50,14 @@ public class SaveData extends AppCompatActivity {
                 writer.write("Tesste: " + username + ", " + testee_info + "\n"
                         + "Sensor: " + sensor + ", " + sensor_res + "\n"
                         + environment + "\n"
+                        + (channels > 1 ? "Channels: " + channels + "\n" : "")
+                        + (device != null ? "Device: " + device + "\n" : "")
+                        + formatGaps(gaps)
                         + "----------------------------- \n");
+                Log.i("writer", "Writing " + dataSave.size() + " samples to file");
                 for (int i = 0; i < dataSave.size(); i++) {
-                    Log.i("writer", "Writing to file");
-                    writer.write((dataSave.get(i) + "\n"));
+                    writer.write(Float.toString(dataSave.get(i)));
+                    writer.write((i + 1) % channels == 0 ? '\n' : ',');
                 }
                 writer.flush();
             } catch (Exception e) {
@@ -61,6 +73,18 @@ public class SaveData extends AppCompatActivity {
         }
     }
 
+    // e.g. "Gaps (line+count): 1200+450 5300+90", empty when nothing was filled
+    private static String formatGaps(long[] gaps) {
+        if (gaps == null || gaps.length == 0) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder("Gaps (line+count):");
+        for (int i = 0; i + 1 < gaps.length; i += 2) {
+            sb.append(' ').append(gaps[i]).append('+').append(gaps[i + 1]);
+        }
+        return sb.append('\n').toString();
+    }
+
     public String getDate() {
         Calendar calendar = Calendar.getInstance();
         SimpleDateFormat simpledateformat = new SimpleDateFormat("yyyyMMdd_HH'h'mm'm'ss's'", Locale.getDefault());
@@ -0,0 +1,142 @@
+package emgsignal.v3.SavedDataProcessing;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.util.AttributeSet;
+import android.view.View;
+
+/**
+ * Spectrogram as a heatmap: time to the right, frequency upwards, power in dB as colour.
+ * A long recording has more frames than the screen has pixels, and a bitmap that wide is
+ * more than a texture can hold, so consecutive frames are averaged into at most one column
+ * per pixel of screen width.
+ * Frames arrive in batches while the rest is still being computed; only the columns they
+ * fall in are painted, unless the loudest bin rises well above the colour scale, which
+ * repaints it all. Call from the UI thread.
+ */
+public class SpectrogramView extends View {
+    // dB below the top of the colour scale that are still coloured
+    private static final float DYNAMIC_RANGE_DB = 60;
+    // Rise of the loudest bin that moves the colour scale
+    private static final float RESCALE_DB = 3;
+
+    private final Paint paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final Rect target = new Rect();
+    private Bitmap bitmap;
+    private int frames = 0;
+    // Sum of the power of the frames in each column so far, per bin, and their number
+    private float[][] power = new float[0][];
+    private int[] counts = new int[0];
+    // Average power in dB per column and bin
+    private float[][] db = new float[0][];
+    private int[] pixels = new int[0];
+    private int columns = 0;
+    private float maxDb = Float.NEGATIVE_INFINITY;
+    private float topDb = Float.NEGATIVE_INFINITY;
+
+    public SpectrogramView(Context context) {
+        super(context);
+    }
+
+    public SpectrogramView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+    }
+
+    // Clears the view for frames frames of bins values each
+    public void setSize(int frames, int bins) {
+        // The view is never wider than the screen
+        int width = Math.min(frames, Math.max(1, getResources().getDisplayMetrics().widthPixels));
+        bitmap = width > 0 && bins > 0 ? Bitmap.createBitmap(width, bins, Bitmap.Config.ARGB_8888) : null;
+        this.frames = frames;
+        power = new float[width][];
+        counts = new int[width];
+        db = new float[width][];
+        pixels = new int[bins];
+        columns = 0;
+        maxDb = Float.NEGATIVE_INFINITY;
+        topDb = Float.NEGATIVE_INFINITY;
+        invalidate();
+    }
+
+    /**
+     * Adds count frames of power spectral density, the first at frame from.
+     */
+    public void addColumns(int from, double[][] psd, int count) {
+        if (bitmap == null || count <= 0) {
+            return;
+        }
+        for (int c = 0; c < count; c++) {
+            int x = column(from + c);
+            if (power[x] == null) {
+                power[x] = new float[psd[c].length];
+                db[x] = new float[psd[c].length];
+            }
+            for (int i = 0; i < power[x].length; i++) {
+                power[x][i] += (float) psd[c][i];
+            }
+            counts[x]++;
+        }
+        int first = column(from);
+        int last = column(from + count - 1);
+        for (int x = first; x <= last; x++) {
+            for (int i = 0; i < db[x].length; i++) {
+                db[x][i] = (float) (10 * Math.log10(power[x][i] / counts[x]));
+                if (db[x][i] > maxDb) {
+                    maxDb = db[x][i];
+                }
+            }
+        }
+        columns = Math.max(columns, last + 1);
+        if (maxDb > topDb + RESCALE_DB) {
+            topDb = maxDb;
+            for (int x = 0; x < columns; x++) {
+                paintColumn(x);
+            }
+        } else {
+            for (int x = first; x <= last; x++) {
+                paintColumn(x);
+            }
+        }
+        invalidate();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+        if (bitmap != null) {
+            target.set(getPaddingLeft(), getPaddingTop(), getWidth() - getPaddingRight(), getHeight() - getPaddingBottom());
+            canvas.drawBitmap(bitmap, null, target, paint);
+        }
+    }
+
+    // Column a frame is averaged into, frames spread evenly over the bitmap
+    private int column(int frame) {
+        return (int) ((long) frame * db.length / frames);
+    }
+
+    private void paintColumn(int x) {
+        float[] column = db[x];
+        if (column == null) {
+            return;
+        }
+        int bins = pixels.length;
+        for (int i = 0; i < bins; i++) {
+            float level = (column[i] - topDb + DYNAMIC_RANGE_DB) / DYNAMIC_RANGE_DB;
+            // Low frequencies at the bottom
+            pixels[bins - 1 - i] = colour(Math.max(0, Math.min(1, level)));
+        }
+        bitmap.setPixels(pixels, 0, 1, x, 0, 1, bins);
+    }
+
+    // Dark blue through cyan and yellow to dark red, as MATLAB's jet
+    private static int colour(float level) {
+        float r = Math.max(0, Math.min(1, 1.5f - Math.abs(4 * level - 3)));
+        float g = Math.max(0, Math.min(1, 1.5f - Math.abs(4 * level - 2)));
+        float b = Math.max(0, Math.min(1, 1.5f - Math.abs(4 * level - 1)));
+        return Color.rgb((int) (255 * r), (int) (255 * g), (int) (255 * b));
+    }
+}
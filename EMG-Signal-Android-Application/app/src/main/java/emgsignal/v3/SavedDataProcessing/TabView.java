@@ -16,15 +16,21 @@ import com.jjoe64.graphview.GraphView;
 import com.jjoe64.graphview.series.DataPoint;
 import com.jjoe64.graphview.series.LineGraphSeries;
 
-import org.apache.commons.math3.complex.Complex;
-
 import emgsignal.v3.R;
 import emgsignal.v3.SignalProcessing.FFT;
-import emgsignal.v3.SignalProcessing.MyComplex;
 import emgsignal.v3.SignalProcessing.Progressing;
+import emgsignal.v3.SignalProcessing.SpectralPool;
+import emgsignal.v3.SignalProcessing.Stft;
 
 public class TabView extends AppCompatActivity {
     private static final double Fs = 1000;
+    // Welch segment for the mean and median frequency, about 1 s
+    private static final int WELCH_SEGMENT = 1024;
+    // Shortest recording analysed, one Welch segment of 256 ms with 4 Hz bins
+    private static final int MIN_WELCH_SEGMENT = 256;
+    // Spectrogram frames of 256 ms every 64 ms
+    private static final int SPECTROGRAM_SEGMENT = 256;
+    private static final int SPECTROGRAM_HOP = 64;
     private final double maxYTimeGraph = 10;
     private final double maxYFFTGraph = 0.01;
     private LineGraphSeries<DataPoint> fftSeries, timeSeries, dBFFTSeries;
@@ -35,6 +41,8 @@ public class TabView extends AppCompatActivity {
     private double maxTimeSignal, minTimeSignal, maxFFTSignal, minFFTSignal, maxDBSignal, minDBSignal;
     private Button btnScaleTimeSignal, btnScaleFFTSignal;
     private int rdCheck = 0;
+    private SpectrogramView spectrogramView;
+    private Thread analysisThread, spectrogramThread;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -44,7 +52,7 @@ public class TabView extends AppCompatActivity {
         //Get intent - data from realtime signal saved
         final Intent getData = getIntent();
         lengthData = getData.getIntExtra("Length", 1);
-        double[] amplitude = getData.getDoubleArrayExtra("TimeData");
+        final double[] amplitude = getData.getDoubleArrayExtra("TimeData");
         Log.i("CHECKING LONG", "long data " + lengthData);
 
         //Set up tabHost
@@ -52,24 +60,29 @@ public class TabView extends AppCompatActivity {
         tabHost.setup();
         timeGraph = findViewById(R.id.time_chart);
         frequencyGraph = findViewById(R.id.frequency_chart);
-        TextView textView = findViewById(R.id.text_info);
+        final TextView textView = findViewById(R.id.text_info);
+        spectrogramView = findViewById(R.id.spectrogram);
 
         //create Time series
         timeSeries = new LineGraphSeries<>();
         timeSeries.setColor(Color.RED);
         timeSeries.setThickness(2);
-        for (int k = 0; k < lengthData; k++) {
+        // Without data the graphs stay empty
+        int shown = amplitude == null ? 0 : Math.min(lengthData, amplitude.length);
+        for (int k = 0; k < shown; k++) {
             timeSeries.appendData(new DataPoint(k, amplitude[k]), true, lengthData);
         }
         timeGraph.addSeries(timeSeries);
         timeGraph.getViewport().setMaxX(lengthData / 3.0);
 
         //min,max time signal
-        minTimeSignal = Progressing.min(amplitude);
-        String TAG = "DATA PROCESSING";
-        Log.i(TAG, "MIN value of amplitude: " + minTimeSignal);
-        maxTimeSignal = Progressing.max(amplitude);
-        Log.i(TAG, "MAX value of amplitude: " + maxTimeSignal);
+        if (shown > 0) {
+            minTimeSignal = Progressing.min(amplitude);
+            String TAG = "DATA PROCESSING";
+            Log.i(TAG, "MIN value of amplitude: " + minTimeSignal);
+            maxTimeSignal = Progressing.max(amplitude);
+            Log.i(TAG, "MAX value of amplitude: " + maxTimeSignal);
+        }
 
         //draw time graph
         Progressing.drawGraph(timeGraph, timeSeries, -maxYTimeGraph, maxYTimeGraph, lengthData / 3.0);
@@ -99,26 +112,7 @@ public class TabView extends AppCompatActivity {
         dBFFTSeries.setColor(Color.BLUE);
         dBFFTSeries.setThickness(2);
 
-        Complex[] fft = FFT.transform(amplitude);
-        double[] absFFT = FFT.absFFT(fft);
-        double[] dbFFT = FFT.dbFFT(absFFT);
-
-        Log.d("LENGTH OF FFT", String.valueOf(absFFT.length));
-
-        //min, max frequency
-        minFFTSignal = Progressing.min(absFFT);
-        maxFFTSignal = Progressing.max(absFFT);
-        minDBSignal = Progressing.min(dbFFT);
-        maxDBSignal = Progressing.max(dbFFT);
-
-        for (int k1 = 0; k1 < absFFT.length; k1++) {
-            fftSeries.appendData(new DataPoint(k1 * Fs / fft.length, absFFT[k1]), true, absFFT.length);
-        }
-        for (int k1 = 0; k1 < absFFT.length; k1++) {
-            dBFFTSeries.appendData(new DataPoint(k1 * Fs / fft.length, dbFFT[k1]), true, absFFT.length);
-        }
-
-        Progressing.drawGraph(frequencyGraph, fftSeries, 0, maxYFFTGraph, 500);
+        startAnalysis(amplitude, textView);
 
         radioGroup = findViewById(R.id.group_radio);
         radioGroup.setOnCheckedChangeListener(
@@ -166,12 +160,6 @@ public class TabView extends AppCompatActivity {
             }
         });
 
-        textView.setText("");
-        textView.append("+) SNR: " + (double)Math.round(Progressing.snr(amplitude, Fs) * 100) / 100 + " dB\n");
-        textView.append("+) Mean Frequency: " + (double)Math.round(Progressing.meanFrequency(absFFT, Fs) * 100) / 100 + " Hz\n");
-        textView.append("+) Median Frequency: " + (double)Math.round(Progressing.medianFrequency(absFFT, Fs) * 100) / 100 + " Hz\n");
-        textView.append("+) Max: " + (double)Math.round(Progressing.max(dbFFT, 1, dbFFT.length - 1) * 100) / 100 + " dB at " + (double)Math.round(Progressing.maxFrequency(dbFFT, Fs) * 100) / 100 + "Hz\n");
-        textView.append("+) Min: " + (double)Math.round(Progressing.min(dbFFT, 1, dbFFT.length - 1) * 100) / 100 + " dB at " + (double)Math.round(Progressing.minFrequency(dbFFT, Fs) * 100) / 100 + "Hz\n");
         //Tab 1
         TabHost.TabSpec spec = tabHost.newTabSpec("Time domain");
         spec.setContent(R.id.tab1);
@@ -208,6 +196,12 @@ public class TabView extends AppCompatActivity {
         spec.setContent(R.id.tab3);
         spec.setIndicator("Information");
         tabHost.addTab(spec);
+
+        //Tab 4
+        spec = tabHost.newTabSpec("Spectrogram");
+        spec.setContent(R.id.tab4);
+        spec.setIndicator("Spectrogram");
+        tabHost.addTab(spec);
         tabHost.setOnTabChangedListener(new TabHost.OnTabChangeListener() {
             @Override
             public void onTabChanged(String tabId) {
@@ -224,8 +218,122 @@ public class TabView extends AppCompatActivity {
                 tv.setTextColor(Color.WHITE);
             }
         });
+
+        startSpectrogram(amplitude);
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (analysisThread != null) {
+            analysisThread.interrupt();
+        }
+        if (spectrogramThread != null) {
+            spectrogramThread.interrupt();
+        }
+        super.onDestroy();
+    }
+
+    // Computes the spectrum and the figures of the information tab off the UI thread, then shows them
+    private void startAnalysis(final double[] amplitude, final TextView textView) {
+        if (amplitude == null || amplitude.length < MIN_WELCH_SEGMENT) {
+            textView.setText(R.string.not_enough_data);
+            return;
+        }
+        textView.setText(R.string.analysing);
+        analysisThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Bins 0 to n / 2, the rest mirror them
+                final double[] absFFT = FFT.absRealFFT(amplitude);
+                final double[] dbFFT = FFT.dbFFT(absFFT);
+                // Averaged over segments, steadier than a single periodogram of the whole recording;
+                // at least MIN_WELCH_SEGMENT, which the recording holds
+                int segment = Math.min(WELCH_SEGMENT, Integer.highestOneBit(amplitude.length));
+                final double[] psd;
+                try {
+                    psd = SpectralPool.getShared().welch(amplitude, segment, Fs);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                final double welchResolution = Fs / segment;
+                final double snr = Progressing.snr(amplitude, Fs);
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        showSpectrum(absFFT, dbFFT, Fs / amplitude.length);
+                        showInformation(textView, snr, psd, welchResolution, dbFFT, Fs / amplitude.length);
+                    }
+                });
+            }
+        }, "Analysis");
+        analysisThread.start();
     }
 
+    private void showSpectrum(double[] absFFT, double[] dbFFT, double resolution) {
+        Log.d("LENGTH OF FFT", String.valueOf(absFFT.length));
+
+        //min, max frequency
+        minFFTSignal = Progressing.min(absFFT);
+        maxFFTSignal = Progressing.max(absFFT);
+        minDBSignal = Progressing.min(dbFFT);
+        maxDBSignal = Progressing.max(dbFFT);
+
+        for (int k1 = 0; k1 < absFFT.length; k1++) {
+            fftSeries.appendData(new DataPoint(k1 * resolution, absFFT[k1]), true, absFFT.length);
+        }
+        for (int k1 = 0; k1 < absFFT.length; k1++) {
+            dBFFTSeries.appendData(new DataPoint(k1 * resolution, dbFFT[k1]), true, absFFT.length);
+        }
+
+        if (rdCheck == 0) {
+            Progressing.drawGraph(frequencyGraph, fftSeries, 0, maxYFFTGraph, 500);
+        } else
+            Progressing.drawGraph(frequencyGraph, dBFFTSeries, -150, -10, 500);
+    }
+
+    private void showInformation(TextView textView, double snr, double[] psd, double welchResolution, double[] dbFFT, double resolution) {
+        textView.setText("");
+        textView.append("+) SNR: " + (double)Math.round(snr * 100) / 100 + " dB\n");
+        textView.append("+) Mean Frequency: " + (double)Math.round(Progressing.psdMeanFrequency(psd, welchResolution) * 100) / 100 + " Hz\n");
+        textView.append("+) Median Frequency: " + (double)Math.round(Progressing.psdMedianFrequency(psd, welchResolution) * 100) / 100 + " Hz\n");
+        textView.append("+) Max: " + (double)Math.round(Progressing.max(dbFFT, 1, dbFFT.length - 1) * 100) / 100 + " dB at " + (double)Math.round(Progressing.maxFrequency(dbFFT, dbFFT.length - 1, resolution) * 100) / 100 + "Hz\n");
+        textView.append("+) Min: " + (double)Math.round(Progressing.min(dbFFT, 1, dbFFT.length - 1) * 100) / 100 + " dB at " + (double)Math.round(Progressing.minFrequency(dbFFT, dbFFT.length - 1, resolution) * 100) / 100 + "Hz\n");
+    }
+
+    // Computes the spectrogram on the shared pool, showing each chunk of columns as it is done
+    private void startSpectrogram(final double[] amplitude) {
+        // Same guard as startAnalysis, the view stays empty
+        if (amplitude == null || amplitude.length < MIN_WELCH_SEGMENT) {
+            return;
+        }
+        Stft stft = new Stft(SPECTROGRAM_SEGMENT, SPECTROGRAM_HOP, Fs);
+        spectrogramView.setSize(stft.getFrames(amplitude.length), stft.getBins());
+        spectrogramThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    SpectralPool.getShared().stft(amplitude, SPECTROGRAM_SEGMENT, SPECTROGRAM_HOP, Fs,
+                            new SpectralPool.FrameListener() {
+                                @Override
+                                public void onFrames(final int from, final double[][] frames, final int count) {
+                                    runOnUiThread(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            spectrogramView.addColumns(from, frames, count);
+                                        }
+                                    });
+                                }
+                            });
+                } catch (InterruptedException e) {
+                    // Activity closed, the remaining frames are cancelled
+                }
+            }
+        }, "Spectrogram");
+        spectrogramThread.start();
+    }
 
     public void onRadioButtonClicked(View view) {
     }
@@ -83,6 +83,22 @@ public class BesselI implements UnivariateFunction {
         return value(order, x, false);
     }
 
+    /**
+     * Modified Bessel function of the first kind of order 0, \(I_0(x)\), by its power series
+     * sum ((x / 2)^k / k!)^2. All terms are positive, so it is accurate to rounding wherever the
+     * result fits a double, and it is much cheaper than {@link #riBesl} for a single order.
+     */
+    public static double i0(double x) {
+        double q = x * x / 4;
+        double term = 1;
+        double sum = 1;
+        for (int k = 1; term > sum * 1e-17; k++) {
+            term *= q / ((double) k * k);
+            sum += term;
+        }
+        return sum;
+    }
+
     /**
      * Returns modified first Bessel function \(I_{order}(x)\)
      *
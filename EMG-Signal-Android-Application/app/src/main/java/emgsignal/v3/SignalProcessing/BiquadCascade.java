@@ -0,0 +1,288 @@
+package emgsignal.v3.SignalProcessing;
+
+import java.util.ArrayList;
+
+/**
+ * IIR filter run as a cascade of second-order sections (biquads) in float.
+ * A high-order direct-form polynomial such as the 50 Hz band-stop in {@link IIR_Filter}
+ * has coefficients near +-198 and needs double precision; split into biquads every
+ * coefficient stays below 2 and float state is enough.
+ * Each section runs in transposed direct form II. A block is filtered one section at a
+ * time, so the inner loop only touches two state values. Not thread-safe.
+ */
+public class BiquadCascade implements BlockFilter {
+    private static final int MAX_ITERATIONS = 2000;
+    private static final double ROOT_TOLERANCE = 1e-14;
+
+    private final int sections;
+    // b0, b1, b2, a1, a2 per section
+    private final float[] coeffs;
+    // z1, z2 per section
+    private final float[] state;
+
+    /**
+     * @param sos one row {b0, b1, b2, a1, a2} per section, a0 = 1 left out as in
+     *            {@link IIR_Filter}.
+     */
+    public BiquadCascade(double[][] sos) {
+        if (sos.length == 0)
+            throw new IllegalArgumentException("At least one section");
+        sections = sos.length;
+        coeffs = new float[sections * 5];
+        state = new float[sections * 2];
+        for (int s = 0; s < sections; s++) {
+            if (sos[s].length != 5)
+                throw new IllegalArgumentException("Section " + s + " needs 5 coefficients");
+            for (int i = 0; i < 5; i++) {
+                coeffs[s * 5 + i] = (float) sos[s][i];
+            }
+        }
+    }
+
+    public int getSections() {
+        return sections;
+    }
+
+    public float process(float x) {
+        for (int s = 0, c = 0, z = 0; s < sections; s++, c += 5, z += 2) {
+            float y = coeffs[c] * x + state[z];
+            state[z] = coeffs[c + 1] * x - coeffs[c + 3] * y + state[z + 1];
+            state[z + 1] = coeffs[c + 2] * x - coeffs[c + 4] * y;
+            x = y;
+        }
+        return x;
+    }
+
+    @Override
+    public void process(float[] src, int srcOff, float[] dst, int dstOff, int len) {
+        // The first section reads src, the others run in place on dst
+        float[] in = src;
+        int inOff = srcOff;
+        for (int s = 0, c = 0, z = 0; s < sections; s++, c += 5, z += 2) {
+            float b0 = coeffs[c], b1 = coeffs[c + 1], b2 = coeffs[c + 2];
+            float a1 = coeffs[c + 3], a2 = coeffs[c + 4];
+            float z1 = state[z], z2 = state[z + 1];
+            for (int k = 0; k < len; k++) {
+                float x = in[inOff + k];
+                float y = b0 * x + z1;
+                z1 = b1 * x - a1 * y + z2;
+                z2 = b2 * x - a2 * y;
+                dst[dstOff + k] = y;
+            }
+            state[z] = z1;
+            state[z + 1] = z2;
+            in = dst;
+            inOff = dstOff;
+        }
+    }
+
+    // Same arithmetic in float, only the samples are double
+    @Override
+    public void process(double[] src, int srcOff, double[] dst, int dstOff, int len) {
+        double[] in = src;
+        int inOff = srcOff;
+        for (int s = 0, c = 0, z = 0; s < sections; s++, c += 5, z += 2) {
+            float b0 = coeffs[c], b1 = coeffs[c + 1], b2 = coeffs[c + 2];
+            float a1 = coeffs[c + 3], a2 = coeffs[c + 4];
+            float z1 = state[z], z2 = state[z + 1];
+            for (int k = 0; k < len; k++) {
+                float x = (float) in[inOff + k];
+                float y = b0 * x + z1;
+                z1 = b1 * x - a1 * y + z2;
+                z2 = b2 * x - a2 * y;
+                dst[dstOff + k] = y;
+            }
+            state[z] = z1;
+            state[z + 1] = z2;
+            in = dst;
+            inOff = dstOff;
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < state.length; i++) {
+            state[i] = 0;
+        }
+    }
+
+    /**
+     * Sets the state as if x had been the input forever, so a signal sitting on a large
+     * offset does not start with the step response of the filter.
+     */
+    public void reset(double x) {
+        for (int s = 0, c = 0, z = 0; s < sections; s++, c += 5, z += 2) {
+            double sumA = 1 + coeffs[c + 3] + coeffs[c + 4];
+            double y = sumA == 0 ? 0 : x * (coeffs[c] + coeffs[c + 1] + coeffs[c + 2]) / sumA;
+            double z2 = coeffs[c + 2] * x - coeffs[c + 4] * y;
+            state[z + 1] = (float) z2;
+            state[z] = (float) (coeffs[c + 1] * x - coeffs[c + 3] * y + z2);
+            x = y;
+        }
+    }
+
+    /**
+     * Splits b(z) / a(z) into second-order sections, see {@link #fromZeroPole}.
+     *
+     * @param b numerator, order + 1 coefficients.
+     * @param a denominator without the leading 1, order coefficients.
+     * @return one row {b0, b1, b2, a1, a2} per section.
+     */
+    public static double[][] fromTransferFunction(double[] b, double[] a) {
+        if (b.length != a.length + 1)
+            throw new IllegalArgumentException("b needs one coefficient more than a");
+        if (b[0] == 0)
+            throw new IllegalArgumentException("b[0] must not be 0");
+        double[] denominator = new double[a.length + 1];
+        denominator[0] = 1;
+        System.arraycopy(a, 0, denominator, 1, a.length);
+        return fromZeroPole(roots(b), roots(denominator), b[0]);
+    }
+
+    /**
+     * Builds second-order sections from zeros, poles and gain.
+     * Each pair of poles is matched with the nearest pair of zeros, starting from the poles
+     * closest to the unit circle, and the sections are ordered so those come last.
+     * The overall gain goes into the first section.
+     *
+     * @param zeros {real parts, imaginary parts}, as many as poles.
+     * @param poles {real parts, imaginary parts}.
+     * @return one row {b0, b1, b2, a1, a2} per section.
+     */
+    public static double[][] fromZeroPole(double[][] zeros, double[][] poles, double gain) {
+        if (zeros[0].length != poles[0].length)
+            throw new IllegalArgumentException("Needs as many zeros as poles");
+        if (poles[0].length == 0)
+            throw new IllegalArgumentException("At least one pole");
+        ArrayList<double[]> zeroPairs = pairRoots(zeros);
+        ArrayList<double[]> polePairs = pairRoots(poles);
+        int n = polePairs.size();
+        double[][] sos = new double[n][];
+        for (int s = n - 1; s >= 0; s--) {
+            // Pole pair closest to the unit circle goes last
+            int best = 0;
+            for (int i = 1; i < polePairs.size(); i++) {
+                if (polePairs.get(i)[2] > polePairs.get(best)[2]) {
+                    best = i;
+                }
+            }
+            double[] pole = polePairs.remove(best);
+            int nearest = 0;
+            for (int i = 1; i < zeroPairs.size(); i++) {
+                if (distance(zeroPairs.get(i), pole) < distance(zeroPairs.get(nearest), pole)) {
+                    nearest = i;
+                }
+            }
+            double[] zero = zeroPairs.remove(nearest);
+            // zero and pole hold {-(r1 + r2), r1 * r2, |r|}
+            sos[s] = new double[]{1, zero[0], zero[1], pole[0], pole[1]};
+        }
+        sos[0][0] *= gain;
+        sos[0][1] *= gain;
+        sos[0][2] *= gain;
+        return sos;
+    }
+
+    // Distance between the first roots of two pairs, from their quadratic coefficients
+    private static double distance(double[] p, double[] q) {
+        double pr = -p[0] / 2, qr = -q[0] / 2;
+        double pi = Math.sqrt(Math.max(0, p[1] - pr * pr));
+        double qi = Math.sqrt(Math.max(0, q[1] - qr * qr));
+        return Math.hypot(pr - qr, pi - qi);
+    }
+
+    /**
+     * Groups roots into pairs with real products: the root with the largest imaginary part
+     * goes with the root closest to its conjugate, until only real roots are left, which are
+     * paired the same way. A repeated root comes back from the iteration as a small cluster,
+     * not as exact conjugates, so pairs are matched by distance rather than by sign.
+     * A pair is returned as {-(r1 + r2), r1 * r2, max |r|}; an odd real root is paired with 0.
+     */
+    private static ArrayList<double[]> pairRoots(double[][] roots) {
+        ArrayList<double[]> left = new ArrayList<>();
+        for (int i = 0; i < roots[0].length; i++) {
+            left.add(new double[]{roots[0][i], roots[1][i]});
+        }
+        ArrayList<double[]> pairs = new ArrayList<>();
+        while (!left.isEmpty()) {
+            int first = 0;
+            for (int i = 1; i < left.size(); i++) {
+                if (Math.abs(left.get(i)[1]) > Math.abs(left.get(first)[1])) {
+                    first = i;
+                }
+            }
+            double[] r1 = left.remove(first);
+            double[] r2 = {0, 0};
+            if (!left.isEmpty()) {
+                int partner = 0;
+                for (int i = 1; i < left.size(); i++) {
+                    if (Math.hypot(left.get(i)[0] - r1[0], left.get(i)[1] + r1[1])
+                            < Math.hypot(left.get(partner)[0] - r1[0], left.get(partner)[1] + r1[1])) {
+                        partner = i;
+                    }
+                }
+                r2 = left.remove(partner);
+            }
+            // Real parts of the sum and product, the imaginary parts only hold rounding
+            double sum = r1[0] + r2[0];
+            double product = r1[0] * r2[0] - r1[1] * r2[1];
+            pairs.add(new double[]{-sum, product, Math.max(Math.hypot(r1[0], r1[1]), Math.hypot(r2[0], r2[1]))});
+        }
+        return pairs;
+    }
+
+    /**
+     * Roots of p[0] x^n + p[1] x^(n-1) + ... + p[n] by Durand-Kerner iteration.
+     *
+     * @return {real parts, imaginary parts}.
+     */
+    static double[][] roots(double[] p) {
+        int n = p.length - 1;
+        double[] re = new double[n];
+        double[] im = new double[n];
+        // Start on a spiral that is not symmetric about the real axis
+        double sr = 1, si = 0;
+        for (int i = 0; i < n; i++) {
+            re[i] = sr;
+            im[i] = si;
+            double r = sr * 0.4 - si * 0.9;
+            si = sr * 0.9 + si * 0.4;
+            sr = r;
+        }
+        for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+            double change = 0;
+            for (int i = 0; i < n; i++) {
+                // value of the monic polynomial at root i
+                double vr = 1, vi = 0;
+                for (int k = 1; k <= n; k++) {
+                    double t = vr * re[i] - vi * im[i] + p[k] / p[0];
+                    vi = vr * im[i] + vi * re[i];
+                    vr = t;
+                }
+                // product of the differences to the other roots
+                double dr = 1, di = 0;
+                for (int j = 0; j < n; j++) {
+                    if (j != i) {
+                        double xr = re[i] - re[j], xi = im[i] - im[j];
+                        double t = dr * xr - di * xi;
+                        di = dr * xi + di * xr;
+                        dr = t;
+                    }
+                }
+                double den = dr * dr + di * di;
+                if (den == 0) {
+                    continue;
+                }
+                double qr = (vr * dr + vi * di) / den;
+                double qi = (vi * dr - vr * di) / den;
+                re[i] -= qr;
+                im[i] -= qi;
+                change = Math.max(change, Math.hypot(qr, qi));
+            }
+            if (change < ROOT_TOLERANCE) {
+                break;
+            }
+        }
+        return new double[][]{re, im};
+    }
+}
@@ -0,0 +1,15 @@
+package emgsignal.v3.SignalProcessing;
+
+/**
+ * A filter stage that processes a block of len samples from src[srcOff] into dst[dstOff].
+ * dst may be src at the same offset, so stages can be chained in place over one preallocated
+ * buffer; other overlaps are not supported. State carries over from one block to the next.
+ */
+public interface BlockFilter {
+    void process(float[] src, int srcOff, float[] dst, int dstOff, int len);
+
+    void process(double[] src, int srcOff, double[] dst, int dstOff, int len);
+
+    // Back to the state before the first sample
+    void reset();
+}
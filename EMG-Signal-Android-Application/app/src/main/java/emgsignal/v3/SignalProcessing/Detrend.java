@@ -1,37 +1,41 @@
 //Function to Eliminate DC level
 package emgsignal.v3.SignalProcessing;
 
-import android.util.Log;
-
-import org.apache.commons.math3.stat.regression.SimpleRegression;
-
 
 public class Detrend {
 
     public static double[] detrend(double[] x) {
+        double[] y = new double[x.length];
+        detrend(x, 0, y, 0, x.length);
+        return y;
+    }
 
-        double[][] newInput = new double[x.length][2];
-        for (int i = 0; i < x.length; i++) {
-            newInput[i][1] = x[i];
-            newInput[i][0] = (double) i;
+    /**
+     * Removes the least-squares line through len samples of src, writing them to dst, which may
+     * be the same range of src. The line is fitted against the sample index, as before with
+     * SimpleRegression, from two passes of sums instead of an n x 2 copy of the input.
+     */
+    public static void detrend(double[] src, int srcOff, double[] dst, int dstOff, int len) {
+        if (len == 0) {
+            return;
         }
-
-        SimpleRegression regression = new SimpleRegression();
-        regression.addData(newInput);
-        double slope = regression.getSlope();
-        Log.i("DETREND", "Check Detrend Function: slope = " + slope);
-        double intercept = regression.getIntercept();
-        Log.i("DETREND", "Check Detrend Function: intercept = " + intercept);
-        double[][] output = new double[newInput.length][2];
-        double[] y = new double[x.length];
-        int j = 0;
-        for (int i = 0; i < newInput.length; i++) {
-            //double diffed = input[i][1] - slope*input[i][0] - intercept;
-            output[i][1] = newInput[i][1] - slope * newInput[i][0] - intercept;
-            y[j++] = output[i][1];
-            output[i][0] = newInput[i][0];
-            //Log.i("DETREND", "Check Detrend Function: input = " + newInput[i][1] + "  output = "+ y[j-1]);
+        double meanX = (len - 1) / 2.0;
+        double meanY = 0;
+        for (int i = 0; i < len; i++) {
+            meanY += src[srcOff + i];
+        }
+        meanY /= len;
+        double sxy = 0;
+        double sxx = 0;
+        for (int i = 0; i < len; i++) {
+            double dx = i - meanX;
+            sxy += dx * (src[srcOff + i] - meanY);
+            sxx += dx * dx;
+        }
+        double slope = sxx == 0 ? 0 : sxy / sxx;
+        double intercept = meanY - slope * meanX;
+        for (int i = 0; i < len; i++) {
+            dst[dstOff + i] = src[srcOff + i] - slope * i - intercept;
         }
-        return y;
     }
 }
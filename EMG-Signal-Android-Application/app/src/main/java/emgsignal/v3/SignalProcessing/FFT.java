@@ -1,39 +1,106 @@
 package emgsignal.v3.SignalProcessing;
 
 import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
 
 public class FFT {
     public static Complex[] transform(double[] x) {
         return transform(MyComplex.toComplexArray(x));
     }
 
+    // Runs on split arrays through a cached FFTPlan
     public static Complex[] transform(Complex[] x) {
-        int n = x.length;
-        if ((n & (n - 1)) == 0)  // Is power of 2
-            return transformRadix2(x);
-        else  // More complicated algorithm for arbitrary sizes
-            return transformBluestein(x);
+        double[] re = MyComplex.toRealArray(x);
+        double[] im = MyComplex.toImagArray(x);
+        transform(re, im);
+        return MyComplex.toComplexArray(re, im);
+    }
+
+    /**
+     * Transform of n real samples from src[srcOff], without Complex objects: the samples are
+     * packed in pairs into an n / 2 point complex transform, which is then split into the
+     * spectrum. Only the bins 0 to n / 2 are written to re and im, the others are their
+     * complex conjugates.
+     */
+    public static void realTransform(double[] src, int srcOff, int n, double[] re, double[] im) {
+        if (n < 1)
+            throw new IllegalArgumentException("At least one sample");
+        int bins = n / 2 + 1;
+        if (re.length < bins || im.length < bins)
+            throw new IllegalArgumentException("Output needs n / 2 + 1 bins");
+        if (n % 2 != 0) {
+            // Odd lengths do not pack, run the full complex transform
+            double[] fullRe = new double[n];
+            double[] fullIm = new double[n];
+            System.arraycopy(src, srcOff, fullRe, 0, n);
+            transform(fullRe, fullIm, n);
+            System.arraycopy(fullRe, 0, re, 0, bins);
+            System.arraycopy(fullIm, 0, im, 0, bins);
+            return;
+        }
+        int h = n / 2;
+        for (int k = 0; k < h; k++) {
+            re[k] = src[srcOff + 2 * k];
+            im[k] = src[srcOff + 2 * k + 1];
+        }
+        FFTPlan plan = FFTPlan.forLength(h);
+        plan.transform(re, im);
+        plan.splitReal(re, im);
+    }
+
+    // Magnitudes of bins 0 to n / 2 of real x, scaled by n as absFFT
+    public static double[] absRealFFT(double[] x) {
+        int bins = x.length / 2 + 1;
+        double[] re = new double[bins];
+        double[] im = new double[bins];
+        realTransform(x, 0, x.length, re, im);
+        absFFT(re, im, 0, re, 0, bins, x.length);
+        return re;
+    }
+
+    /**
+     * Transform of re + i im in place, any length.
+     */
+    public static void transform(double[] re, double[] im) {
+        if (re.length != im.length)
+            throw new IllegalArgumentException("Mismatched lengths");
+        transform(re, im, re.length);
     }
 
     public static double[] absFFT(Complex[] fft) {
         double[] absFFT = new double[fft.length];
+        double scale = 1.0 / fft.length;
         for (int i = 0; i < fft.length; ++i) {
-            absFFT[i] = fft[i].abs() / absFFT.length;
+            absFFT[i] = fft[i].abs() * scale;
         }
         return absFFT;
     }
 
+    /**
+     * Magnitudes of len bins from srcOff of the n point transform re + i im, scaled by n as
+     * absFFT, into dst. dst may be the same range of re or im.
+     */
+    public static void absFFT(double[] re, double[] im, int srcOff, double[] dst, int dstOff, int len, int n) {
+        double scale = 1.0 / n;
+        for (int i = 0; i < len; ++i) {
+            double a = re[srcOff + i];
+            double b = im[srcOff + i];
+            dst[dstOff + i] = Math.sqrt(a * a + b * b) * scale;
+        }
+    }
+
     public static double[] dbFFT(double[] absFFT) {
         double[] dbFFT = new double[absFFT.length];
-        for (int i = 0; i < absFFT.length; ++i) {
-            dbFFT[i] = 20 * Math.log10(absFFT[i]);
-        }
+        dbFFT(absFFT, 0, dbFFT, 0, absFFT.length);
         return dbFFT;
     }
 
+    // dst may be the same range of src
+    public static void dbFFT(double[] src, int srcOff, double[] dst, int dstOff, int len) {
+        for (int i = 0; i < len; ++i) {
+            dst[dstOff + i] = 20 * Math.log10(src[srcOff + i]);
+        }
+    }
+
     public static Complex[] inverseTransform(Complex[] x) {
         int n = x.length;
         Complex[] y = new Complex[n];
@@ -48,55 +115,13 @@ public class FFT {
         return y;
     }
 
-    private static Complex[] transformRadix2(Complex[] x) {
-        FastFourierTransformer transformer = new FastFourierTransformer(DftNormalization.STANDARD);
-        return transformer.transform(x, TransformType.FORWARD);
-    }
-
-    private static Complex[] transformBluestein(Complex[] x) {
-        int n = x.length;
-        if (n >= 0x20000000)
-            throw new IllegalArgumentException("Array too large");
-        int m = Integer.highestOneBit(n) * 4;
-
-        // Trigonometric tables
-        double[] cosTable = new double[n];
-        double[] sinTable = new double[n];
-        for (int i = 0; i < n; i++) {
-            int j = (int) ((long) i * i % (n * 2));  // This is more accurate than j = i * i
-            cosTable[i] = Math.cos(Math.PI * j / n);
-            sinTable[i] = Math.sin(Math.PI * j / n);
-        }
-
-        // Temporary vectors and preprocessing
-        double[] areal = new double[m];
-        double[] aimag = new double[m];
-        for (int i = 0; i < n; i++) {
-            areal[i] = x[i].getReal() * cosTable[i] + x[i].getImaginary() * sinTable[i];
-            aimag[i] = -x[i].getReal() * sinTable[i] + x[i].getImaginary() * cosTable[i];
-        }
-        double[] breal = new double[m];
-        double[] bimag = new double[m];
-        breal[0] = cosTable[0];
-        bimag[0] = sinTable[0];
-        for (int i = 1; i < n; i++) {
-            breal[i] = breal[m - i] = cosTable[i];
-            bimag[i] = bimag[m - i] = sinTable[i];
+    // Transform of the first n values of re + i im in place
+    private static void transform(double[] re, double[] im, int n) {
+        if (n > 1) {
+            FFTPlan.forLength(n).transform(re, im);
         }
-
-        Complex[] a = MyComplex.toComplexArray(areal, aimag);
-        Complex[] b = MyComplex.toComplexArray(breal, bimag);
-        Complex[] c = convolve(a, b);
-        Complex[] y = new Complex[n];
-        // Postprocessing
-        for (int i = 0; i < n; i++) {
-            y[i] = new Complex(c[i].getReal() * cosTable[i] + c[i].getImaginary() * sinTable[i],
-                    -c[i].getReal() * sinTable[i] + c[i].getImaginary() * cosTable[i]);
-        }
-        return y;
     }
 
-
     public static Complex[] convolve(Complex[] x, Complex[] y) {
         if (x.length != y.length)
             throw new IllegalArgumentException("Mismatched lengths");
@@ -0,0 +1,265 @@
+package emgsignal.v3.SignalProcessing;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The part of an FFT that depends only on its length: twiddle factors and the bit-reversal
+ * permutation for powers of 2, and for other lengths the Bluestein chirp together with the
+ * transform of its extension, which the convolution needs on every call.
+ * Plans are cached by length, so repeated transforms of one size, such as the frames of a
+ * spectrogram, skip all of this. As with {@link Windows}, the cache is bounded by the size of
+ * the tables as well as by count, and a plan for a whole recording is built but not kept.
+ * The Bluestein work arrays are kept per thread up to a bound, so small transforms of other
+ * lengths do not allocate either. A plan is immutable and thread-safe.
+ */
+public class FFTPlan {
+    // Distinct lengths kept, the least recently used is dropped first
+    private static final int CACHE_SIZE = 16;
+    // Table values kept over all plans, about 8 MB
+    private static final int CACHE_VALUES = 1 << 20;
+    // Longest Bluestein work arrays kept per thread, 1 MB for both
+    private static final int WORK_LENGTH = 1 << 16;
+
+    private static final Map<Integer, FFTPlan> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private static long values = 0;
+    private static long hits = 0;
+    private static long misses = 0;
+
+    // Real and imaginary work arrays of the calling thread, shared by all Bluestein plans
+    private static final ThreadLocal<double[][]> work = new ThreadLocal<double[][]>() {
+        @Override
+        protected double[][] initialValue() {
+            return new double[2][0];
+        }
+    };
+
+    private final int n;
+    // Radix-2: cos and sin of 2 pi k / n for k < n / 2, and the bit-reversed index of each k
+    private final double[] cosTable;
+    private final double[] sinTable;
+    private final int[] reversed;
+    // Bluestein: the chirp, and the transform of its symmetric extension to inner's length
+    private final double[] chirpCos;
+    private final double[] chirpSin;
+    private final double[] chirpRe;
+    private final double[] chirpIm;
+    private final FFTPlan inner;
+    // cos and sin of pi k / n for k <= n / 2, to split the packed transform of 2n real samples
+    private final double[] splitCos;
+    private final double[] splitSin;
+    // Values in the tables above, the inner plan apart
+    private final long tableValues;
+
+    public static FFTPlan forLength(int n) {
+        if (n < 1)
+            throw new IllegalArgumentException("Length must be at least 1");
+        if (n >= 0x20000000)
+            throw new IllegalArgumentException("Array too large");
+        FFTPlan plan = lookup(n);
+        if (plan == null) {
+            // Built outside the lock; two threads may both build it, the second one wins
+            plan = store(n, new FFTPlan(n));
+        }
+        return plan;
+    }
+
+    public static synchronized long getCacheHits() {
+        return hits;
+    }
+
+    public static synchronized long getCacheMisses() {
+        return misses;
+    }
+
+    public static synchronized void clearCache() {
+        cache.clear();
+        values = 0;
+    }
+
+    private static synchronized FFTPlan lookup(int n) {
+        FFTPlan plan = cache.get(n);
+        if (plan != null) {
+            hits++;
+        }
+        return plan;
+    }
+
+    private static synchronized FFTPlan store(int n, FFTPlan plan) {
+        misses++;
+        if (plan.tableValues > CACHE_VALUES) {
+            return plan;
+        }
+        FFTPlan old = cache.put(n, plan);
+        if (old != null) {
+            values -= old.tableValues;
+        }
+        values += plan.tableValues;
+        Iterator<FFTPlan> eldest = cache.values().iterator();
+        while (cache.size() > CACHE_SIZE || values > CACHE_VALUES) {
+            values -= eldest.next().tableValues;
+            eldest.remove();
+        }
+        return plan;
+    }
+
+    private FFTPlan(int n) {
+        this.n = n;
+        splitCos = new double[n / 2 + 1];
+        splitSin = new double[n / 2 + 1];
+        for (int k = 0; k <= n / 2; k++) {
+            splitCos[k] = Math.cos(Math.PI * k / n);
+            splitSin[k] = Math.sin(Math.PI * k / n);
+        }
+        if ((n & (n - 1)) == 0) {
+            int levels = Integer.numberOfTrailingZeros(n);
+            cosTable = new double[n / 2];
+            sinTable = new double[n / 2];
+            for (int i = 0; i < n / 2; i++) {
+                cosTable[i] = Math.cos(2 * Math.PI * i / n);
+                sinTable[i] = Math.sin(2 * Math.PI * i / n);
+            }
+            reversed = new int[n];
+            for (int i = 1; i < n; i++) {
+                reversed[i] = Integer.reverse(i) >>> (32 - levels);
+            }
+            chirpCos = chirpSin = chirpRe = chirpIm = null;
+            inner = null;
+            tableValues = 3L * n + 2;
+        } else {
+            cosTable = sinTable = null;
+            reversed = null;
+            // Smallest power of 2 that holds the linear convolution
+            int m = Integer.highestOneBit(2 * n - 2) * 2;
+            inner = forLength(m);
+            chirpCos = new double[n];
+            chirpSin = new double[n];
+            for (int i = 0; i < n; i++) {
+                int j = (int) ((long) i * i % (n * 2));  // This is more accurate than j = i * i
+                chirpCos[i] = Math.cos(Math.PI * j / n);
+                chirpSin[i] = Math.sin(Math.PI * j / n);
+            }
+            chirpRe = new double[m];
+            chirpIm = new double[m];
+            chirpRe[0] = chirpCos[0];
+            chirpIm[0] = chirpSin[0];
+            for (int i = 1; i < n; i++) {
+                chirpRe[i] = chirpRe[m - i] = chirpCos[i];
+                chirpIm[i] = chirpIm[m - i] = chirpSin[i];
+            }
+            inner.transform(chirpRe, chirpIm);
+            tableValues = 3L * n + 2 * m + 2;
+        }
+    }
+
+    public int getLength() {
+        return n;
+    }
+
+    /**
+     * Transforms the first n values of re + i im in place.
+     */
+    public void transform(double[] re, double[] im) {
+        if (re.length < n || im.length < n)
+            throw new IllegalArgumentException("Arrays shorter than the plan");
+        if (reversed != null)
+            transformRadix2(re, im);
+        else
+            transformBluestein(re, im);
+    }
+
+    private void transformRadix2(double[] re, double[] im) {
+        for (int i = 1; i < n; i++) {
+            int j = reversed[i];
+            if (j > i) {
+                double t = re[i];
+                re[i] = re[j];
+                re[j] = t;
+                t = im[i];
+                im[i] = im[j];
+                im[j] = t;
+            }
+        }
+        for (int size = 2; size <= n; size *= 2) {
+            int half = size / 2;
+            int step = n / size;
+            for (int i = 0; i < n; i += size) {
+                for (int j = i, k = 0; j < i + half; j++, k += step) {
+                    int l = j + half;
+                    double tre = re[l] * cosTable[k] + im[l] * sinTable[k];
+                    double tim = -re[l] * sinTable[k] + im[l] * cosTable[k];
+                    re[l] = re[j] - tre;
+                    im[l] = im[j] - tim;
+                    re[j] += tre;
+                    im[j] += tim;
+                }
+            }
+        }
+    }
+
+    // Bluestein's chirp z-transform: a convolution with the chirp, done by the inner plan
+    private void transformBluestein(double[] re, double[] im) {
+        int m = inner.n;
+        double[] areal;
+        double[] aimag;
+        if (m <= WORK_LENGTH) {
+            double[][] arrays = work.get();
+            if (arrays[0].length < m) {
+                arrays[0] = new double[m];
+                arrays[1] = new double[m];
+            }
+            areal = arrays[0];
+            aimag = arrays[1];
+            // The convolution needs the zero padding
+            Arrays.fill(areal, n, m, 0);
+            Arrays.fill(aimag, n, m, 0);
+        } else {
+            areal = new double[m];
+            aimag = new double[m];
+        }
+        for (int i = 0; i < n; i++) {
+            areal[i] = re[i] * chirpCos[i] + im[i] * chirpSin[i];
+            aimag[i] = -re[i] * chirpSin[i] + im[i] * chirpCos[i];
+        }
+        inner.transform(areal, aimag);
+        // Product, conjugated so the forward transform below runs the inverse
+        for (int i = 0; i < m; i++) {
+            double t = areal[i] * chirpRe[i] - aimag[i] * chirpIm[i];
+            aimag[i] = -(areal[i] * chirpIm[i] + aimag[i] * chirpRe[i]);
+            areal[i] = t;
+        }
+        inner.transform(areal, aimag);
+        for (int i = 0; i < n; i++) {
+            double cr = areal[i] / m, ci = -aimag[i] / m;
+            re[i] = cr * chirpCos[i] + ci * chirpSin[i];
+            im[i] = -cr * chirpSin[i] + ci * chirpCos[i];
+        }
+    }
+
+    /**
+     * Turns the transform of 2n real samples packed as n complex pairs, held in the first n
+     * values of re and im, into bins 0 to n of their spectrum.
+     */
+    void splitReal(double[] re, double[] im) {
+        double zr = re[0], zi = im[0];
+        re[0] = zr + zi;
+        im[0] = 0;
+        re[n] = zr - zi;
+        im[n] = 0;
+        // Bins k and n - k are split together from Z[k] and Z[n - k]
+        for (int k = 1, j = n - 1; k <= j; k++, j--) {
+            double ar = re[k], ai = im[k], br = re[j], bi = im[j];
+            // Transforms of the even and the odd samples
+            double er = (ar + br) / 2, ei = (ai - bi) / 2;
+            double or = (ai + bi) / 2, oi = (br - ar) / 2;
+            double wr = splitCos[k], wi = -splitSin[k];
+            double tr = wr * or - wi * oi, ti = wr * oi + wi * or;
+            re[k] = er + tr;
+            im[k] = ei + ti;
+            re[j] = er - tr;
+            im[j] = ti - ei;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package emgsignal.v3.SignalProcessing;
+
+/**
+ * Mean and median frequency of a live signal over a sliding window, the usual indicators of
+ * muscle fatigue: both fall as a contraction is held.
+ * Samples go into a ring buffer; every hop samples, once the window is full, the window is
+ * transformed through {@link Stft}, whose buffers and FFT plan are reused, and both
+ * frequencies are taken from its power spectral density. Adding a sample is O(1) otherwise.
+ * The time each estimate took is kept so callers can check it fits within the hop.
+ * One instance follows one stream; not thread-safe.
+ */
+public class FatigueTracker {
+    private final int hop;
+    private final Stft stft;
+    private final double[] ring;
+    private final double[] frame;
+    private final double[] psd;
+    private int next = 0;
+    private int filled = 0;
+    private int sinceEstimate = 0;
+    private double meanFrequency = Double.NaN;
+    private double medianFrequency = Double.NaN;
+    private long computeNanos = 0;
+
+    /**
+     * @param window samples each estimate is taken over; a power of 2 is the fastest.
+     * @param hop    samples between estimates, at most window.
+     */
+    public FatigueTracker(int window, int hop, double fs) {
+        if (hop < 1 || hop > window)
+            throw new IllegalArgumentException("Hop must lie between 1 and the window");
+        this.hop = hop;
+        stft = new Stft(window, window, fs);
+        ring = new double[window];
+        frame = new double[window];
+        psd = new double[stft.getBins()];
+    }
+
+    /**
+     * @return true when a new estimate is ready.
+     */
+    public boolean add(double x) {
+        ring[next] = x;
+        if (++next == ring.length) {
+            next = 0;
+        }
+        if (filled < ring.length) {
+            if (++filled < ring.length) {
+                return false;
+            }
+        } else if (++sinceEstimate < hop) {
+            return false;
+        }
+        sinceEstimate = 0;
+        estimate();
+        return true;
+    }
+
+    // Of the latest window in Hz, NaN before the first estimate or over a silent window
+    public double getMeanFrequency() {
+        return meanFrequency;
+    }
+
+    public double getMedianFrequency() {
+        return medianFrequency;
+    }
+
+    // Time the latest estimate took in nanoseconds
+    public long getComputeNanos() {
+        return computeNanos;
+    }
+
+    public void reset() {
+        next = 0;
+        filled = 0;
+        sinceEstimate = 0;
+        meanFrequency = Double.NaN;
+        medianFrequency = Double.NaN;
+    }
+
+    private void estimate() {
+        long start = System.nanoTime();
+        // Oldest sample first
+        int older = ring.length - next;
+        System.arraycopy(ring, next, frame, 0, older);
+        System.arraycopy(ring, 0, frame, older, next);
+        stft.frame(frame, 0, psd, 0);
+        double total = SpectralMoments.total(psd);
+        if (total > 0) {
+            meanFrequency = SpectralMoments.meanFrequency(psd, stft.getResolution());
+            medianFrequency = SpectralMoments.medianFrequency(psd, stft.getResolution());
+        } else {
+            meanFrequency = Double.NaN;
+            medianFrequency = Double.NaN;
+        }
+        computeNanos = System.nanoTime() - start;
+    }
+}
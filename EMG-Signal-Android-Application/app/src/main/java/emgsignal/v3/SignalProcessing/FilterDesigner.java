@@ -0,0 +1,249 @@
+package emgsignal.v3.SignalProcessing;
+
+import org.apache.commons.math3.complex.Complex;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Designs IIR filters as second-order sections for {@link BiquadCascade} at any sampling rate,
+ * instead of the coefficients hard-coded for 1000 Hz in {@link IIR_Filter}.
+ * Butterworth and Chebyshev type I designs go from the analog prototype through the frequency
+ * transform and the bilinear transform with prewarped edges, as MATLAB's butter and cheby1 do.
+ * Designs are cached by their parameters, so asking again costs a map lookup. The returned
+ * arrays are shared and must not be modified. Thread-safe.
+ */
+public class FilterDesigner {
+    // Distinct designs kept, the least recently used is dropped first
+    private static final int CACHE_SIZE = 32;
+    // Half width of the band-stop around the mains frequency, as in IIR_Filter
+    public static final double MAINS_HALF_WIDTH = 5;
+    public static final int MAINS_ORDER = 5;
+    public static final int ENVELOPE_ORDER = 4;
+    public static final double ENVELOPE_CUTOFF = 10;
+
+    private static final Map<String, double[][]> cache = new LinkedHashMap<String, double[][]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, double[][]> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    private static long hits = 0;
+    private static long misses = 0;
+
+    // Band-stop of MAINS_ORDER around the mains frequency, the live notch
+    public static double[][] mainsBandStop(double mains, double fs) {
+        return butterworthBandStop(MAINS_ORDER, mains - MAINS_HALF_WIDTH, mains + MAINS_HALF_WIDTH, fs);
+    }
+
+    // Low-pass of the rectified signal, the live envelope
+    public static double[][] envelopeLowPass(double fs) {
+        return butterworthLowPass(ENVELOPE_ORDER, ENVELOPE_CUTOFF, fs);
+    }
+
+    public static double[][] butterworthLowPass(int order, double cutoff, double fs) {
+        checkOrder(order);
+        checkBand(cutoff, cutoff, fs);
+        String key = "lp/" + order + "/" + cutoff + "/" + fs;
+        double[][] sos = lookup(key);
+        if (sos == null) {
+            sos = store(key, lowPass(butterworthPoles(order), 1, warp(cutoff, fs), fs));
+        }
+        return sos;
+    }
+
+    public static double[][] butterworthBandPass(int order, double low, double high, double fs) {
+        checkOrder(order);
+        checkBand(low, high, fs);
+        String key = "bp/" + order + "/" + low + "/" + high + "/" + fs;
+        double[][] sos = lookup(key);
+        if (sos == null) {
+            sos = store(key, band(butterworthPoles(order), 1, warp(low, fs), warp(high, fs), false, fs));
+        }
+        return sos;
+    }
+
+    /**
+     * Chebyshev type I band-pass, steeper than Butterworth for the same order.
+     *
+     * @param rippleDb peak to peak ripple in the pass band, in dB.
+     */
+    public static double[][] chebyshevBandPass(int order, double rippleDb, double low, double high, double fs) {
+        checkOrder(order);
+        checkBand(low, high, fs);
+        if (rippleDb <= 0)
+            throw new IllegalArgumentException("Ripple must be positive");
+        String key = "cheby-bp/" + order + "/" + rippleDb + "/" + low + "/" + high + "/" + fs;
+        double[][] sos = lookup(key);
+        if (sos == null) {
+            Complex[] poles = chebyshevPoles(order, rippleDb);
+            Complex product = Complex.ONE;
+            for (Complex p : poles) {
+                product = product.multiply(p.negate());
+            }
+            double gain = product.getReal();
+            if (order % 2 == 0) {
+                // Even orders sit at the bottom of the ripple at DC
+                gain /= Math.sqrt(Math.pow(10, rippleDb / 10));
+            }
+            sos = store(key, band(poles, gain, warp(low, fs), warp(high, fs), false, fs));
+        }
+        return sos;
+    }
+
+    public static double[][] butterworthBandStop(int order, double low, double high, double fs) {
+        checkOrder(order);
+        checkBand(low, high, fs);
+        String key = "bs/" + order + "/" + low + "/" + high + "/" + fs;
+        double[][] sos = lookup(key);
+        if (sos == null) {
+            sos = store(key, band(butterworthPoles(order), 1, warp(low, fs), warp(high, fs), true, fs));
+        }
+        return sos;
+    }
+
+    /**
+     * Second-order notch: zeros on the unit circle at f0, poles just inside.
+     *
+     * @param q f0 divided by the -3 dB width of the notch.
+     */
+    public static double[][] notch(double f0, double q, double fs) {
+        checkBand(f0, f0, fs);
+        if (q <= 0)
+            throw new IllegalArgumentException("Q must be positive");
+        String key = "notch/" + f0 + "/" + q + "/" + fs;
+        double[][] sos = lookup(key);
+        if (sos == null) {
+            double w0 = 2 * Math.PI * f0 / fs;
+            double alpha = Math.sin(w0) / (2 * q);
+            double a0 = 1 + alpha;
+            double c = -2 * Math.cos(w0) / a0;
+            sos = store(key, new double[][]{{1 / a0, c, 1 / a0, c, (1 - alpha) / a0}});
+        }
+        return sos;
+    }
+
+    public static synchronized long getCacheHits() {
+        return hits;
+    }
+
+    public static synchronized long getCacheMisses() {
+        return misses;
+    }
+
+    public static synchronized void clearCache() {
+        cache.clear();
+    }
+
+    private static synchronized double[][] lookup(String key) {
+        double[][] sos = cache.get(key);
+        if (sos != null) {
+            hits++;
+        }
+        return sos;
+    }
+
+    private static synchronized double[][] store(String key, double[][] sos) {
+        misses++;
+        cache.put(key, sos);
+        return sos;
+    }
+
+    private static void checkOrder(int order) {
+        if (order < 1)
+            throw new IllegalArgumentException("Order must be at least 1");
+    }
+
+    private static void checkBand(double low, double high, double fs) {
+        if (!(low > 0 && low <= high && high < fs / 2))
+            throw new IllegalArgumentException("Frequencies must lie between 0 and fs / 2");
+    }
+
+    // Analog frequency that the bilinear transform maps onto f
+    private static double warp(double f, double fs) {
+        return 2 * fs * Math.tan(Math.PI * f / fs);
+    }
+
+    // Poles of the analog Butterworth prototype with cut-off 1 rad/s, gain 1
+    private static Complex[] butterworthPoles(int order) {
+        Complex[] poles = new Complex[order];
+        for (int k = 0; k < order; k++) {
+            double theta = Math.PI * (2 * k - order + 1) / (2 * order);
+            poles[k] = new Complex(-Math.cos(theta), -Math.sin(theta));
+        }
+        return poles;
+    }
+
+    // Poles of the analog Chebyshev type I prototype with its ripple band ending at 1 rad/s
+    private static Complex[] chebyshevPoles(int order, double rippleDb) {
+        double eps = Math.sqrt(Math.pow(10, rippleDb / 10) - 1);
+        double x = 1 / eps;
+        double mu = Math.log(x + Math.sqrt(x * x + 1)) / order;
+        Complex[] poles = new Complex[order];
+        for (int k = 0; k < order; k++) {
+            double theta = Math.PI * (2 * k - order + 1) / (2 * order);
+            poles[k] = new Complex(mu, theta).sinh().negate();
+        }
+        return poles;
+    }
+
+    private static double[][] lowPass(Complex[] prototype, double gain, double wc, double fs) {
+        ArrayList<Complex> poles = new ArrayList<>();
+        for (Complex p : prototype) {
+            poles.add(p.multiply(wc));
+        }
+        return bilinear(new ArrayList<Complex>(), poles, gain * Math.pow(wc, prototype.length), fs);
+    }
+
+    // Maps the prototype onto the band between w1 and w2, as pass band or as stop band
+    private static double[][] band(Complex[] prototype, double gain, double w1, double w2, boolean stop, double fs) {
+        double bw = w2 - w1;
+        Complex w0Squared = new Complex(w1 * w2);
+        ArrayList<Complex> zeros = new ArrayList<>();
+        ArrayList<Complex> poles = new ArrayList<>();
+        Complex product = Complex.ONE;
+        for (Complex p : prototype) {
+            Complex half = stop ? new Complex(bw / 2).divide(p) : p.multiply(bw / 2);
+            Complex root = half.multiply(half).subtract(w0Squared).sqrt();
+            poles.add(half.add(root));
+            poles.add(half.subtract(root));
+            product = product.multiply(p.negate());
+        }
+        for (int i = 0; i < prototype.length; i++) {
+            if (stop) {
+                double w0 = Math.sqrt(w1 * w2);
+                zeros.add(new Complex(0, w0));
+                zeros.add(new Complex(0, -w0));
+            } else {
+                zeros.add(Complex.ZERO);
+            }
+        }
+        double k = stop ? gain / product.getReal() : gain * Math.pow(bw, prototype.length);
+        return bilinear(zeros, poles, k, fs);
+    }
+
+    // Analog zeros, poles and gain to digital sections; missing zeros go to z = -1
+    private static double[][] bilinear(ArrayList<Complex> zeros, ArrayList<Complex> poles, double gain, double fs) {
+        Complex fs2 = new Complex(2 * fs);
+        Complex ratio = Complex.ONE;
+        Complex[] digitalZeros = new Complex[poles.size()];
+        Complex[] digitalPoles = new Complex[poles.size()];
+        for (int i = 0; i < poles.size(); i++) {
+            Complex p = poles.get(i);
+            digitalPoles[i] = fs2.add(p).divide(fs2.subtract(p));
+            ratio = ratio.divide(fs2.subtract(p));
+            if (i < zeros.size()) {
+                Complex z = zeros.get(i);
+                digitalZeros[i] = fs2.add(z).divide(fs2.subtract(z));
+                ratio = ratio.multiply(fs2.subtract(z));
+            } else {
+                digitalZeros[i] = new Complex(-1);
+            }
+        }
+        return BiquadCascade.fromZeroPole(
+                new double[][]{MyComplex.toRealArray(digitalZeros), MyComplex.toImagArray(digitalZeros)},
+                new double[][]{MyComplex.toRealArray(digitalPoles), MyComplex.toImagArray(digitalPoles)},
+                gain * ratio.getReal());
+    }
+}
@@ -10,6 +10,15 @@ public class IIR_Filter {
     public double[] B_coeff10Hz = {8.98486146372335e-07, 3.59394458548934e-06, 5.39091687823401e-06, 3.59394458548934e-06, 8.98486146372335e-07};
     public double[] A_coeff10Hz = {-3.83582554064735, 5.52081913662223, -3.53353521946301, 0.848555999266476};
 
+    // The 50 Hz band-stop as second-order sections for BiquadCascade, which runs in float
+    public double[][] sections50Hz() {
+        return BiquadCascade.fromTransferFunction(B_coeff, A_coeff);
+    }
+
+    public double[][] sections10Hz() {
+        return BiquadCascade.fromTransferFunction(B_coeff10Hz, A_coeff10Hz);
+    }
+
     public double[] update_input_filter_array50Hz(double[] array, double newNumber) {
         int i = 10;
         while (i >= 1) {
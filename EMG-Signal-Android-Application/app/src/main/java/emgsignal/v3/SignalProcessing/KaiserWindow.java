@@ -1,19 +1,29 @@
 package emgsignal.v3.SignalProcessing;
 
-
+/**
+ * Kaiser window of length L, as MATLAB's kaiser. The denominator I0(beta) is computed once;
+ * {@link Windows#kaiser} builds and caches whole windows from this.
+ */
 public class KaiserWindow {
     private final int L;
     private final double beta;
+    private final double i0Beta;
 
     public KaiserWindow(int L, double beta) {
         this.beta = beta;
         this.L = L;
+        i0Beta = BesselI.i0(beta);
     }
 
     public double value(int n) {
         if (n < 0 || n >= L) {
             return 0;
         }
-        return BesselI.value(0, beta * Math.sqrt(1 - Math.pow(((n - (double) (L - 1) / 2) / ((double) (L - 1) / 2)), 2))) / BesselI.value(0, beta);
+        if (L == 1) {
+            return 1;
+        }
+        // beta * sqrt(1 - r^2) with r = 2n / (L - 1) - 1, without the cancellation near the ends
+        double m = L - 1;
+        return BesselI.i0(beta * 2 * Math.sqrt(n * (m - n)) / m) / i0Beta;
     }
 }
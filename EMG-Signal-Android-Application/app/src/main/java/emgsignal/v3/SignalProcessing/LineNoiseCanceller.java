@@ -0,0 +1,128 @@
+package emgsignal.v3.SignalProcessing;
+
+/**
+ * Adaptive power line interference canceller. Each harmonic of the mains frequency has a
+ * cosine and a sine reference, and their LMS weights follow the amplitude and phase of the
+ * interference, so only a very narrow band around each harmonic is removed and slow drift of
+ * the mains is tracked. A fixed band-stop instead removes everything within a few Hz, EMG
+ * included.
+ * A weight for the offset is adapted alongside, so the references see a zero-mean error; the
+ * output keeps the offset, like the band-stop.
+ * The references come from a rotating phasor rather than sin() and cos(), so a sample costs
+ * O(harmonics) multiply-adds. One instance follows one stream; not thread-safe.
+ */
+public class LineNoiseCanceller implements BlockFilter {
+    // Samples between renormalisations of the phasor
+    private static final int RENORMALIZE_INTERVAL = 1024;
+    // Time constant of the offset weight
+    private static final double OFFSET_SECONDS = 1;
+
+    private final int harmonics;
+    // Rotation of the fundamental per sample
+    private final double stepCos;
+    private final double stepSin;
+    private final double gain;
+    private final double offsetGain;
+    private final double[] weightCos;
+    private final double[] weightSin;
+    private final double[] refCos;
+    private final double[] refSin;
+    private double phaseCos = 1;
+    private double phaseSin = 0;
+    private double offset = 0;
+    private int sinceNormalized = 0;
+
+    /**
+     * @param mains              power line frequency in Hz.
+     * @param harmonics          harmonics cancelled, counting the fundamental; those at or
+     *                           above fs / 2 are left out.
+     * @param adaptationSeconds  time constant of the weights. Longer is a narrower notch that
+     *                           follows amplitude changes more slowly.
+     */
+    public LineNoiseCanceller(double mains, double fs, int harmonics, double adaptationSeconds) {
+        if (mains <= 0 || mains >= fs / 2)
+            throw new IllegalArgumentException("Mains frequency must lie between 0 and fs / 2");
+        if (harmonics < 1)
+            throw new IllegalArgumentException("At least one harmonic");
+        if (adaptationSeconds <= 0)
+            throw new IllegalArgumentException("Adaptation time must be positive");
+        this.harmonics = Math.min(harmonics, (int) Math.ceil(fs / 2 / mains) - 1);
+        double w = 2 * Math.PI * mains / fs;
+        stepCos = Math.cos(w);
+        stepSin = Math.sin(w);
+        // A reference has power 1/2, so this gain decays the weight error by 1/e in adaptationSeconds
+        gain = 2 / (adaptationSeconds * fs);
+        offsetGain = 1 / (OFFSET_SECONDS * fs);
+        weightCos = new double[this.harmonics];
+        weightSin = new double[this.harmonics];
+        refCos = new double[this.harmonics];
+        refSin = new double[this.harmonics];
+    }
+
+    public int getHarmonics() {
+        return harmonics;
+    }
+
+    public double process(double x) {
+        // References of all harmonics as powers of the fundamental phasor
+        double hc = phaseCos, hs = phaseSin;
+        double noise = 0;
+        for (int h = 0; h < harmonics; h++) {
+            refCos[h] = hc;
+            refSin[h] = hs;
+            noise += weightCos[h] * hc + weightSin[h] * hs;
+            double t = hc * phaseCos - hs * phaseSin;
+            hs = hc * phaseSin + hs * phaseCos;
+            hc = t;
+        }
+        double error = x - offset - noise;
+        double step = gain * error;
+        for (int h = 0; h < harmonics; h++) {
+            weightCos[h] += step * refCos[h];
+            weightSin[h] += step * refSin[h];
+        }
+        offset += offsetGain * error;
+
+        double t = phaseCos * stepCos - phaseSin * stepSin;
+        phaseSin = phaseCos * stepSin + phaseSin * stepCos;
+        phaseCos = t;
+        if (++sinceNormalized == RENORMALIZE_INTERVAL) {
+            sinceNormalized = 0;
+            double norm = Math.hypot(phaseCos, phaseSin);
+            phaseCos /= norm;
+            phaseSin /= norm;
+        }
+        return x - noise;
+    }
+
+    @Override
+    public void process(float[] src, int srcOff, float[] dst, int dstOff, int len) {
+        for (int k = 0; k < len; k++) {
+            dst[dstOff + k] = (float) process(src[srcOff + k]);
+        }
+    }
+
+    @Override
+    public void process(double[] src, int srcOff, double[] dst, int dstOff, int len) {
+        for (int k = 0; k < len; k++) {
+            dst[dstOff + k] = process(src[srcOff + k]);
+        }
+    }
+
+    @Override
+    public void reset() {
+        reset(0);
+    }
+
+    // Forgets the interference and starts the offset at x
+    public void reset(double x) {
+        for (int h = 0; h < harmonics; h++) {
+            weightCos[h] = 0;
+            weightSin[h] = 0;
+        }
+        offset = x;
+        phaseCos = 1;
+        phaseSin = 0;
+        sinceNormalized = 0;
+    }
+}
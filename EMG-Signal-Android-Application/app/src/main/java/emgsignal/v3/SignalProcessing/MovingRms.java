@@ -0,0 +1,67 @@
+package emgsignal.v3.SignalProcessing;
+
+/**
+ * Root mean square over the last window samples, updated in O(1) per sample from a running
+ * sum of squares. The sum is recomputed from the window each time it wraps around, which costs
+ * one extra add per sample and keeps rounding from drifting over a long recording.
+ * Until window samples have arrived, the RMS is taken over the samples seen so far.
+ * One instance follows one stream; not thread-safe.
+ */
+public class MovingRms implements BlockFilter {
+    private final double[] squares;
+    private int next = 0;
+    private int filled = 0;
+    private double sum = 0;
+
+    public MovingRms(int window) {
+        if (window < 1)
+            throw new IllegalArgumentException("Window must hold at least one sample");
+        squares = new double[window];
+    }
+
+    public int getWindow() {
+        return squares.length;
+    }
+
+    public double process(double x) {
+        double square = x * x;
+        sum += square - squares[next];
+        squares[next] = square;
+        if (++next == squares.length) {
+            next = 0;
+            double exact = 0;
+            for (double s : squares) {
+                exact += s;
+            }
+            sum = exact;
+        }
+        if (filled < squares.length) {
+            filled++;
+        }
+        return Math.sqrt(Math.max(0, sum) / filled);
+    }
+
+    @Override
+    public void process(float[] src, int srcOff, float[] dst, int dstOff, int len) {
+        for (int k = 0; k < len; k++) {
+            dst[dstOff + k] = (float) process(src[srcOff + k]);
+        }
+    }
+
+    @Override
+    public void process(double[] src, int srcOff, double[] dst, int dstOff, int len) {
+        for (int k = 0; k < len; k++) {
+            dst[dstOff + k] = process(src[srcOff + k]);
+        }
+    }
+
+    @Override
+    public void reset() {
+        for (int i = 0; i < squares.length; i++) {
+            squares[i] = 0;
+        }
+        next = 0;
+        filled = 0;
+        sum = 0;
+    }
+}
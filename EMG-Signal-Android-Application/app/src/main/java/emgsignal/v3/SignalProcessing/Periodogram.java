@@ -0,0 +1,78 @@
+package emgsignal.v3.SignalProcessing;
+
+/**
+ * One-sided power spectral density of a block of samples under a fixed window, as MATLAB's
+ * periodogram, for callers that compute one block after another. The window power and the
+ * transform buffers are set up once, so a block costs no allocation; only the half spectrum
+ * is computed, by {@link FFT#realTransform}. Not thread-safe.
+ */
+public class Periodogram {
+    private final double[] window;
+    private final double scale;
+    private final double[] windowed;
+    private final double[] re;
+    private final double[] im;
+
+    /**
+     * @param window one value per sample of a block; a power of 2 long is the fastest.
+     */
+    public Periodogram(double[] window, double fs) {
+        if (window.length < 1)
+            throw new IllegalArgumentException("At least one sample per block");
+        if (fs <= 0)
+            throw new IllegalArgumentException("Sampling frequency must be positive");
+        int n = window.length;
+        this.window = window.clone();
+        double u = 0;
+        for (double w : window) {
+            u += w * w;
+        }
+        scale = 1 / (u * fs);
+        windowed = new double[n];
+        // Odd lengths do not pack and run the full complex transform in place
+        int length = n % 2 != 0 ? n : n / 2 + 1;
+        re = new double[length];
+        im = new double[length];
+    }
+
+    public int getLength() {
+        return window.length;
+    }
+
+    // Frequency bins per block, 0 to fs / 2
+    public int getBins() {
+        return window.length / 2 + 1;
+    }
+
+    /**
+     * Writes the density of getLength() samples of src to dst as getBins() values. dst may be
+     * the same range of src, since the windowed samples are copied for the transform first.
+     *
+     * @return the number of bins written.
+     */
+    public int process(double[] src, int srcOff, double[] dst, int dstOff) {
+        int n = window.length;
+        for (int i = 0; i < n; i++) {
+            windowed[i] = src[srcOff + i] * window[i];
+        }
+        if (n % 2 != 0) {
+            System.arraycopy(windowed, 0, re, 0, n);
+            for (int i = 0; i < n; i++) {
+                im[i] = 0;
+            }
+            FFT.transform(re, im);
+        } else {
+            FFT.realTransform(windowed, 0, n, re, im);
+        }
+        int bins = n / 2 + 1;
+        for (int i = 0; i < bins; i++) {
+            double p = (re[i] * re[i] + im[i] * im[i]) * scale;
+            // Every bin but DC and, for even lengths, Nyquist also holds the negative frequency
+            if (i > 0 && (n % 2 != 0 || i < bins - 1)) {
+                p *= 2;
+            }
+            dst[dstOff + i] = p;
+        }
+        return bins;
+    }
+}
@@ -10,12 +10,13 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.regex.Pattern;
 
+import emgsignal.v3.Acquisition.SampleStore;
+
 public class Progressing {
-    private static final Pattern pattern = Pattern.compile("-?\\d+(\\.\\d+)?");
+    private static final Pattern pattern = Pattern.compile("-?\\d+(\\.\\d+)?([eE]-?\\d+)?");
 
     public static double max(double[] arr) {
         double max = arr[0];
@@ -134,8 +135,12 @@ public class Progressing {
     }
 
     public static double totalPower(double[] arr) {
+        return totalPower(arr, arr.length / 2);
+    }
+
+    private static double totalPower(double[] arr, int bins) {
         double result = 0;
-        for (int i = 0; i < arr.length / 2; ++i) {
+        for (int i = 0; i < bins; ++i) {
             result += power(arr[i]);
         }
         return result;
@@ -160,27 +165,34 @@ public class Progressing {
     }
 
     public static double meanFrequency(double[] arr, double Fs) {
-        double[] frequency = getFrequency(arr.length, Fs);
+        return meanFrequency(arr, arr.length / 2, Fs / arr.length);
+    }
+
+    // Mean frequency of the bins 0 to bins - 1 of a spectrum, resolution Hz apart
+    public static double meanFrequency(double[] spectrum, int bins, double resolution) {
         double fm = 0;
-        for (int i = 0; i < arr.length / 2; ++i) {
-            fm = fm + power(arr[i]) * frequency[i];
+        for (int i = 0; i < bins; ++i) {
+            fm = fm + power(spectrum[i]) * i * resolution;
         }
-        return fm / totalPower(arr);
+        return fm / totalPower(spectrum, bins);
     }
 
     public static double medianFrequency(double[] arr, double Fs) {
-        double[] frequency = getFrequency(arr.length, Fs);
-        double checked = totalPower(arr) / 2;
+        return medianFrequency(arr, arr.length / 2, Fs / arr.length);
+    }
+
+    public static double medianFrequency(double[] spectrum, int bins, double resolution) {
+        double checked = totalPower(spectrum, bins) / 2;
         double total = 0;
         int pos = 0;
-        for (int i = 0; i < arr.length / 2; ++i) {
-            total += power(arr[i]);
+        for (int i = 0; i < bins; ++i) {
+            total += power(spectrum[i]);
             if (total >= checked) {
                 pos = i;
                 break;
             }
         }
-        return frequency[pos];
+        return pos * resolution;
     }
 
     public static double maxFrequency(double[] arr, double Fs) {
@@ -207,6 +219,25 @@ public class Progressing {
         return pos * Fs / arr.length;
     }
 
+    // Mean frequency of a power spectral density such as WelchPsd's, bins resolution Hz apart
+    public static double psdMeanFrequency(double[] psd, double resolution) {
+        return SpectralMoments.meanFrequency(psd, resolution);
+    }
+
+    // Frequency that splits the power of a power spectral density in half
+    public static double psdMedianFrequency(double[] psd, double resolution) {
+        return SpectralMoments.medianFrequency(psd, resolution);
+    }
+
+    // Frequency of the largest of the bins 0 to last of a spectrum, resolution Hz apart
+    public static double maxFrequency(double[] spectrum, int last, double resolution) {
+        return indexOfMax(spectrum, 0, last) * resolution;
+    }
+
+    public static double minFrequency(double[] spectrum, int last, double resolution) {
+        return indexOfMin(spectrum, 0, last) * resolution;
+    }
+
     public static double snr(double[] x, double Fs) {
         return Signal.timeSNR(x, Fs);
     }
@@ -226,24 +257,45 @@ public class Progressing {
 
     @NonNull
     public static double[] readFile(File file) {
+        return readFile(file, 0);
+    }
+
+    // Reads one column of a file saved with several comma-separated channels per line
+    @NonNull
+    public static double[] readFile(File file, int channel) {
         String line;
-        ArrayList<Double> lines = new ArrayList<>();
+        SampleStore lines = new SampleStore();
         try {
             BufferedReader bf = new BufferedReader(new FileReader(file));
             while ((line = bf.readLine()) != null) {
-                if (isNumeric(line)) {
-                    lines.add(Double.parseDouble(line));
+                String[] values = line.split(",");
+                if (channel < values.length && isNumeric(values[channel])) {
+                    lines.add(Float.parseFloat(values[channel]));
                 }
             }
             bf.close();
         } catch (IOException e) {
             e.printStackTrace();
         }
-        double[] out = new double[lines.size()];
-        for (int i = 0; i < out.length; ++i) {
-            out[i] = lines.get(i);
+        return lines.toDoubleArray();
+    }
+
+    // Number of channels from the "Channels: N" header line, 1 if there is none
+    public static int readChannelCount(File file) {
+        String line;
+        int channels = 1;
+        try {
+            BufferedReader bf = new BufferedReader(new FileReader(file));
+            while ((line = bf.readLine()) != null && !line.startsWith("-----")) {
+                if (line.startsWith("Channels:")) {
+                    channels = Integer.parseInt(line.substring("Channels:".length()).trim());
+                }
+            }
+            bf.close();
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
         }
-        return out;
+        return channels;
     }
 
     private static boolean isNumeric(String s) {
@@ -1,68 +1,27 @@
 package emgsignal.v3.SignalProcessing;
 
-import org.apache.commons.math3.complex.Complex;
-
 import java.util.ArrayList;
 import java.util.List;
 
 public class Signal {
+    // A copy of the cached window, free to modify
     public static double[] kaiser(int N, double b) {
-        KaiserWindow kaiser = new KaiserWindow(N, b);
-        double[] w = new double[N];
-        for (int i = 0; i < N; ++i) {
-            w[i] = kaiser.value(i);
-        }
-        return w;
+        return Windows.kaiser(N, b).clone();
     }
 
-    public static double[] periodogram(double[] x, double[] w, double Fs) {
-        double[] Sxx = computeperiodogram(x, w);
-        return computepsd(Sxx, Fs);
+    // Periodic Hann window, as MATLAB's hann(N, 'periodic'), for overlapping segments
+    public static double[] hann(int N) {
+        return Windows.hann(N).clone();
     }
 
-    private static double[] computeperiodogram(double[] x, double[] w) {
-        double[] xw = new double[x.length];
-        for (int i = 0; i < x.length; ++i) {
-            xw[i] = x[i] * w[i];
-        }
-        Complex[] Xx = FFT.transform(xw);
-        double U = 0;
-        for (double v : w) {
-            U += v * v;
-        }
-        double[] Pxx = new double[x.length];
-        for (int i = 0; i < x.length; ++i) {
-            Pxx[i] = Xx[i].multiply(Xx[i].conjugate()).divide(U).getReal();
-        }
+    // One-sided PSD of x under window w, as MATLAB's periodogram; see Periodogram for blocks
+    public static double[] periodogram(double[] x, double[] w, double Fs) {
+        Periodogram periodogram = new Periodogram(w, Fs);
+        double[] Pxx = new double[periodogram.getBins()];
+        periodogram.process(x, 0, Pxx, 0);
         return Pxx;
     }
 
-    private static double[] computepsd(double[] Sxx1, double Fs) {
-        int select;
-        int nfft = Sxx1.length;
-        double[] Sxx;
-        if (Sxx1.length % 2 != 0) {
-            select = (nfft + 1) / 2;
-            Sxx = new double[select];
-            if (select >= 0) System.arraycopy(Sxx1, 0, Sxx, 0, select);
-            for (int i = 0; i < select; ++i) {
-                Sxx[i] = 2 * Sxx[i];
-            }
-        } else {
-            select = nfft / 2 + 1;
-            Sxx = new double[select];
-            System.arraycopy(Sxx1, 0, Sxx, 0, select);
-            for (int i = 1; i < select - 1; ++i) {
-                Sxx[i] = 2 * Sxx[i];
-            }
-        }
-
-        for (int i = 0; i < select; ++i) {
-            Sxx[i] /= Fs;
-        }
-        return Sxx;
-    }
-
     private static double enbw(double[] w, double Fs) {
         double bw_t = 0;
         for (double v : w) {
@@ -80,7 +39,8 @@ public class Signal {
             xTmp[i] = x[i] - aver;
         }
         int n = x.length;
-        double[] w = kaiser(n, 38);
+        // Only read, so the cached window itself
+        double[] w = Windows.kaiser(n, 38);
         double rbw = enbw(w, Fs);
         double[] Pxx = periodogram(xTmp, w, Fs);
 
@@ -0,0 +1,42 @@
+package emgsignal.v3.SignalProcessing;
+
+/**
+ * Frequencies that summarise a power spectral density, such as one from {@link WelchPsd},
+ * {@link Periodogram} or {@link Stft}, whose bins lie resolution Hz apart from 0 Hz.
+ * Used by the live {@link FatigueTracker} and by the analysis of saved recordings.
+ */
+public class SpectralMoments {
+
+    // Sum of the bins
+    public static double total(double[] psd) {
+        double total = 0;
+        for (double p : psd) {
+            total += p;
+        }
+        return total;
+    }
+
+    // Power-weighted mean of the bin frequencies
+    public static double meanFrequency(double[] psd, double resolution) {
+        double fm = 0;
+        double total = 0;
+        for (int i = 0; i < psd.length; ++i) {
+            fm += psd[i] * i * resolution;
+            total += psd[i];
+        }
+        return fm / total;
+    }
+
+    // Frequency that splits the power in half
+    public static double medianFrequency(double[] psd, double resolution) {
+        double half = total(psd) / 2;
+        double total = 0;
+        for (int i = 0; i < psd.length; ++i) {
+            total += psd[i];
+            if (total >= half) {
+                return i * resolution;
+            }
+        }
+        return 0;
+    }
+}
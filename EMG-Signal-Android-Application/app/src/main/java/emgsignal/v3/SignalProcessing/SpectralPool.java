@@ -0,0 +1,154 @@
+package emgsignal.v3.SignalProcessing;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the segment-wise spectral analysis of long recordings on a bounded pool of threads.
+ * Welch segments and STFT frames are independent, so the recording is cut into chunks of a
+ * fixed number of them, each chunk is one task with its own buffers, and the partial results
+ * are merged in chunk order. The chunks do not depend on the number of threads, which makes
+ * the result the same, to the bit, on every device.
+ * Methods block the calling thread until all tasks are done, so call them off the UI thread;
+ * interrupting the caller cancels the remaining tasks. Thread-safe.
+ */
+public class SpectralPool {
+    // Welch segments or STFT frames per task
+    public static final int CHUNK = 32;
+
+    private static SpectralPool shared;
+
+    private final ExecutorService executor;
+    private final int threads;
+
+    public interface FrameListener {
+        // Called on a pool thread as each chunk of frames is done, chunks in any order
+        void onFrames(int from, double[][] frames, int count);
+    }
+
+    public SpectralPool(int threads) {
+        if (threads < 1)
+            throw new IllegalArgumentException("At least one thread");
+        this.threads = threads;
+        final AtomicInteger created = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "Spectral-" + created.incrementAndGet());
+                // Never keeps the process alive
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    // Pool with one thread per core, shared by the whole app
+    public static synchronized SpectralPool getShared() {
+        if (shared == null) {
+            shared = new SpectralPool(Runtime.getRuntime().availableProcessors());
+        }
+        return shared;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Welch PSD of all of x with a Hann window and half the segment overlapping, the same as
+     * a {@link WelchPsd} fed x.
+     */
+    public double[] welch(double[] x, int segment, double fs) throws InterruptedException {
+        return welch(x, Windows.hann(segment), segment / 2, fs);
+    }
+
+    public double[] welch(final double[] x, final double[] window, final int overlap, final double fs)
+            throws InterruptedException {
+        WelchPsd total = new WelchPsd(window, overlap, fs);
+        final int n = window.length;
+        final int hop = n - overlap;
+        int segments = x.length < n ? 0 : (x.length - n) / hop + 1;
+        ArrayList<Future<WelchPsd>> parts = new ArrayList<>();
+        for (int first = 0; first < segments; first += CHUNK) {
+            final int start = first * hop;
+            final int count = Math.min(CHUNK, segments - first);
+            parts.add(executor.submit(new Callable<WelchPsd>() {
+                @Override
+                public WelchPsd call() {
+                    WelchPsd part = new WelchPsd(window, overlap, fs);
+                    part.add(x, start, (count - 1) * hop + n);
+                    return part;
+                }
+            }));
+        }
+        for (WelchPsd part : collect(parts)) {
+            total.merge(part);
+        }
+        return total.getPsd();
+    }
+
+    /**
+     * STFT of x with a Hann window, as {@link Stft}, handing each chunk of frames to listener as
+     * soon as it is done.
+     */
+    public void stft(final double[] x, final int segment, final int hop, final double fs, final FrameListener listener)
+            throws InterruptedException {
+        int frames = new Stft(segment, hop, fs).getFrames(x.length);
+        ArrayList<Future<Void>> parts = new ArrayList<>();
+        for (int first = 0; first < frames; first += CHUNK) {
+            final int from = first;
+            final int count = Math.min(CHUNK, frames - first);
+            parts.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    Stft stft = new Stft(segment, hop, fs);
+                    double[][] chunk = new double[count][stft.getBins()];
+                    stft.frames(x, from, from + count, chunk);
+                    listener.onFrames(from, chunk, count);
+                    return null;
+                }
+            }));
+        }
+        collect(parts);
+    }
+
+    // All frames of x at once, row f is frame f
+    public double[][] stft(double[] x, int segment, int hop, double fs) throws InterruptedException {
+        final double[][] out = new double[new Stft(segment, hop, fs).getFrames(x.length)][];
+        stft(x, segment, hop, fs, new FrameListener() {
+            @Override
+            public void onFrames(int from, double[][] frames, int count) {
+                // Each chunk writes its own rows
+                System.arraycopy(frames, 0, out, from, count);
+            }
+        });
+        return out;
+    }
+
+    // Results in submission order; cancels what is left if a task fails or the caller is interrupted
+    private static <T> ArrayList<T> collect(ArrayList<Future<T>> futures) throws InterruptedException {
+        ArrayList<T> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Spectral analysis failed", e.getCause());
+        } finally {
+            for (Future<T> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,79 @@
+package emgsignal.v3.SignalProcessing;
+
+/**
+ * Short-time Fourier transform of a recording: the power spectral density of windowed frames
+ * a fixed hop apart, one column of a spectrogram per frame, scaled as {@link WelchPsd} and
+ * {@link Periodogram}.
+ * Frames are computed on demand in any order, so a view can show the first columns while the
+ * rest are still on their way. The window, the transform buffers and the FFT plan are set up
+ * once, in a {@link Periodogram}, and reused for every frame. Not thread-safe.
+ */
+public class Stft {
+    private final Periodogram periodogram;
+    private final int segment;
+    private final int hop;
+    private final double fs;
+
+    /**
+     * Hann window.
+     */
+    public Stft(int segment, int hop, double fs) {
+        this(Windows.hann(segment), hop, fs);
+    }
+
+    /**
+     * @param window one value per sample of a frame; a power of 2 long is the fastest.
+     * @param hop    samples from the start of one frame to the next.
+     */
+    public Stft(double[] window, int hop, double fs) {
+        if (window.length < 1)
+            throw new IllegalArgumentException("At least one sample per frame");
+        if (hop < 1)
+            throw new IllegalArgumentException("Hop must be at least one sample");
+        if (fs <= 0)
+            throw new IllegalArgumentException("Sampling frequency must be positive");
+        periodogram = new Periodogram(window, fs);
+        segment = window.length;
+        this.hop = hop;
+        this.fs = fs;
+    }
+
+    // Frames that fit completely in length samples
+    public int getFrames(int length) {
+        return length < segment ? 0 : (length - segment) / hop + 1;
+    }
+
+    // Frequency bins per frame, 0 to fs / 2
+    public int getBins() {
+        return segment / 2 + 1;
+    }
+
+    // Spacing of the bins in Hz
+    public double getResolution() {
+        return fs / segment;
+    }
+
+    // Time of the centre of a frame in seconds
+    public double getFrameTime(int frame) {
+        return (frame * (double) hop + segment / 2.0) / fs;
+    }
+
+    /**
+     * Writes the one-sided power spectral density of one frame of x, getBins() values.
+     */
+    public void frame(double[] x, int frame, double[] dst, int dstOff) {
+        int start = frame * hop;
+        if (frame < 0 || start + segment > x.length)
+            throw new IllegalArgumentException("Frame " + frame + " outside the signal");
+        periodogram.process(x, start, dst, dstOff);
+    }
+
+    /**
+     * Computes frames from to to - 1 of x into rows of out, each of getBins() values.
+     */
+    public void frames(double[] x, int from, int to, double[][] out) {
+        for (int f = from; f < to; f++) {
+            frame(x, f, out[f - from], 0);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package emgsignal.v3.SignalProcessing;
+
+/**
+ * Power spectral density by Welch's method, as MATLAB's pwelch: overlapping windowed segments
+ * of a power-of-2 length are transformed and their one-sided periodograms averaged.
+ * Samples can be added in any number of calls, e.g. frame by frame during acquisition; each
+ * segment is transformed as soon as it is complete and only the running sum of the
+ * periodograms is kept, so memory stays O(segment) whatever the length of the recording.
+ * Samples after the last complete segment do not count. Not thread-safe.
+ */
+public class WelchPsd {
+    private final double[] window;
+    private final int hop;
+    private final double scale;
+    private final double fs;
+    private final double[] buffer;
+    private final double[] windowed;
+    private final double[] re;
+    private final double[] im;
+    private final double[] sum;
+    private int filled = 0;
+    private int segments = 0;
+
+    /**
+     * Hann window with half the segment overlapping.
+     */
+    public WelchPsd(int segment, double fs) {
+        this(Windows.hann(segment), segment / 2, fs);
+    }
+
+    /**
+     * @param window  one value per sample of a segment; its length must be a power of 2.
+     * @param overlap samples shared by consecutive segments, less than the segment.
+     */
+    public WelchPsd(double[] window, int overlap, double fs) {
+        int n = window.length;
+        if (n < 1 || (n & (n - 1)) != 0)
+            throw new IllegalArgumentException("Segment length must be a power of 2");
+        if (overlap < 0 || overlap >= n)
+            throw new IllegalArgumentException("Overlap must lie between 0 and the segment length");
+        if (fs <= 0)
+            throw new IllegalArgumentException("Sampling frequency must be positive");
+        this.window = window.clone();
+        this.hop = n - overlap;
+        this.fs = fs;
+        double u = 0;
+        for (double w : window) {
+            u += w * w;
+        }
+        scale = 1 / (u * fs);
+        buffer = new double[n];
+        windowed = new double[n];
+        re = new double[n / 2 + 1];
+        im = new double[n / 2 + 1];
+        sum = new double[n / 2 + 1];
+    }
+
+    public int getSegmentLength() {
+        return window.length;
+    }
+
+    // Segments averaged so far
+    public int getSegments() {
+        return segments;
+    }
+
+    // Spacing of the bins in Hz
+    public double getResolution() {
+        return fs / window.length;
+    }
+
+    public void add(double x) {
+        buffer[filled++] = x;
+        if (filled == buffer.length) {
+            accumulate();
+        }
+    }
+
+    public void add(double[] src, int srcOff, int len) {
+        while (len > 0) {
+            int n = Math.min(len, buffer.length - filled);
+            System.arraycopy(src, srcOff, buffer, filled, n);
+            filled += n;
+            srcOff += n;
+            len -= n;
+            if (filled == buffer.length) {
+                accumulate();
+            }
+        }
+    }
+
+    public double[] getPsd() {
+        double[] psd = new double[sum.length];
+        getPsd(psd, 0);
+        return psd;
+    }
+
+    /**
+     * Writes the average of the segments so far, segment / 2 + 1 bins, all 0 before the first
+     * segment is complete.
+     *
+     * @return the number of bins written.
+     */
+    public int getPsd(double[] dst, int dstOff) {
+        double average = segments == 0 ? 0 : 1.0 / segments;
+        for (int i = 0; i < sum.length; i++) {
+            dst[dstOff + i] = sum[i] * average;
+        }
+        return sum.length;
+    }
+
+    /**
+     * Adds the segments of other, e.g. of another part of the same recording analysed on
+     * another thread. Its incomplete segment, if any, is left out.
+     */
+    public void merge(WelchPsd other) {
+        if (other.sum.length != sum.length)
+            throw new IllegalArgumentException("Segment lengths differ");
+        for (int i = 0; i < sum.length; i++) {
+            sum[i] += other.sum[i];
+        }
+        segments += other.segments;
+    }
+
+    public void reset() {
+        for (int i = 0; i < sum.length; i++) {
+            sum[i] = 0;
+        }
+        filled = 0;
+        segments = 0;
+    }
+
+    private void accumulate() {
+        int n = buffer.length;
+        for (int i = 0; i < n; i++) {
+            windowed[i] = buffer[i] * window[i];
+        }
+        FFT.realTransform(windowed, 0, n, re, im);
+        for (int i = 0; i < sum.length; i++) {
+            double p = (re[i] * re[i] + im[i] * im[i]) * scale;
+            // Every bin but DC and Nyquist also holds the negative frequency
+            sum[i] += i > 0 && i < n / 2 ? 2 * p : p;
+        }
+        segments++;
+        // Keep the overlap for the next segment
+        System.arraycopy(buffer, hop, buffer, 0, n - hop);
+        filled = n - hop;
+    }
+}
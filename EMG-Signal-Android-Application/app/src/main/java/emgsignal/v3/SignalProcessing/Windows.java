@@ -0,0 +1,114 @@
+package emgsignal.v3.SignalProcessing;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Window functions, cached by type, length and parameter. Both windows here are symmetric, so
+ * only the first half is computed and mirrored; the Kaiser window evaluates I0(beta) once and
+ * every point through {@link BesselI#i0}.
+ * Windows as long as a whole recording, as {@link Signal#timeSNR} uses, are the expensive
+ * ones, so the cache is bounded by total samples as well as by count; a window longer than
+ * that bound is computed but not kept. The returned arrays are shared and must not be
+ * modified. Thread-safe.
+ */
+public class Windows {
+    // Distinct windows kept, the least recently used is dropped first
+    private static final int CACHE_SIZE = 16;
+    // Samples kept over all windows, 8 MB
+    private static final int CACHE_SAMPLES = 1 << 20;
+
+    private static final Map<String, double[]> cache = new LinkedHashMap<>(16, 0.75f, true);
+    private static long samples = 0;
+    private static long hits = 0;
+    private static long misses = 0;
+
+    /**
+     * Kaiser window of N points, as MATLAB's kaiser(N, beta).
+     */
+    public static double[] kaiser(int N, double beta) {
+        checkLength(N);
+        if (!(beta >= 0 && beta <= 700))
+            throw new IllegalArgumentException("Beta must lie between 0 and 700");
+        String key = "kaiser/" + N + "/" + beta;
+        double[] w = lookup(key);
+        if (w == null) {
+            KaiserWindow kaiser = new KaiserWindow(N, beta);
+            w = new double[N];
+            for (int i = 0; i < (N + 1) / 2; i++) {
+                w[i] = kaiser.value(i);
+                w[N - 1 - i] = w[i];
+            }
+            w = store(key, w);
+        }
+        return w;
+    }
+
+    /**
+     * Periodic Hann window of N points, as MATLAB's hann(N, 'periodic').
+     */
+    public static double[] hann(int N) {
+        checkLength(N);
+        String key = "hann/" + N;
+        double[] w = lookup(key);
+        if (w == null) {
+            w = new double[N];
+            if (N == 1) {
+                w[0] = 1;
+            } else {
+                // Symmetric about N / 2: w[i] = w[N - i]
+                for (int i = 1; i <= N / 2; i++) {
+                    w[i] = 0.5 * (1 - Math.cos(2 * Math.PI * i / N));
+                    w[N - i] = w[i];
+                }
+            }
+            w = store(key, w);
+        }
+        return w;
+    }
+
+    public static synchronized long getCacheHits() {
+        return hits;
+    }
+
+    public static synchronized long getCacheMisses() {
+        return misses;
+    }
+
+    public static synchronized void clearCache() {
+        cache.clear();
+        samples = 0;
+    }
+
+    private static void checkLength(int N) {
+        if (N < 0)
+            throw new IllegalArgumentException("Window length must not be negative");
+    }
+
+    private static synchronized double[] lookup(String key) {
+        double[] w = cache.get(key);
+        if (w != null) {
+            hits++;
+        }
+        return w;
+    }
+
+    private static synchronized double[] store(String key, double[] w) {
+        misses++;
+        if (w.length > CACHE_SAMPLES) {
+            return w;
+        }
+        double[] old = cache.put(key, w);
+        if (old != null) {
+            samples -= old.length;
+        }
+        samples += w.length;
+        Iterator<double[]> eldest = cache.values().iterator();
+        while (cache.size() > CACHE_SIZE || samples > CACHE_SAMPLES) {
+            samples -= eldest.next().length;
+            eldest.remove();
+        }
+        return w;
+    }
+}
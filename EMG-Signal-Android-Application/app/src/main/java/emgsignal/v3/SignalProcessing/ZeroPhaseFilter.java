@@ -0,0 +1,132 @@
+package emgsignal.v3.SignalProcessing;
+
+/**
+ * Offline forward-backward filtering of a whole recording, as MATLAB's filtfilt: the signal
+ * goes through the sections once forwards and once backwards, so the phase shifts cancel and
+ * the magnitude response is squared.
+ * Both ends are extended by an odd reflection about the end sample, and each pass starts in
+ * the steady state of its first value, which keeps the edges free of transients.
+ * The recording is filtered in place in chunks, one section after another within a chunk, in
+ * double precision. Besides the state only the reflected edges are buffered, never a second
+ * copy of the signal. Not thread-safe.
+ */
+public class ZeroPhaseFilter {
+    // Samples per chunk, small enough for the data cache
+    private static final int CHUNK = 2048;
+
+    private final double[][] sos;
+    // z1, z2 per section
+    private final double[] state;
+    private final int padding;
+
+    /**
+     * @param sos one row {b0, b1, b2, a1, a2} per section, e.g. from {@link FilterDesigner}.
+     */
+    public ZeroPhaseFilter(double[][] sos) {
+        if (sos.length == 0)
+            throw new IllegalArgumentException("At least one section");
+        this.sos = new double[sos.length][];
+        for (int s = 0; s < sos.length; s++) {
+            if (sos[s].length != 5)
+                throw new IllegalArgumentException("Section " + s + " needs 5 coefficients");
+            this.sos[s] = sos[s].clone();
+        }
+        state = new double[sos.length * 2];
+        // Reflected samples added at each end, as scipy's sosfiltfilt
+        padding = 3 * (2 * sos.length + 1);
+    }
+
+    public void filter(double[] x) {
+        filter(x, 0, x.length);
+    }
+
+    // Filters len samples of src into dst, which may be the same range of src
+    public void filter(double[] src, int srcOff, double[] dst, int dstOff, int len) {
+        if (src != dst || srcOff != dstOff) {
+            System.arraycopy(src, srcOff, dst, dstOff, len);
+        }
+        filter(dst, dstOff, len);
+    }
+
+    /**
+     * Filters x[off] to x[off + len - 1] in place.
+     */
+    public void filter(double[] x, int off, int len) {
+        if (off < 0 || len < 0 || off + len > x.length)
+            throw new IllegalArgumentException("Range outside the array");
+        if (len < 2) {
+            return;
+        }
+        int pad = Math.min(padding, len - 1);
+        int end = off + len - 1;
+        double first = x[off];
+        double last = x[end];
+        // Reflections are taken from the input, before the forward pass overwrites it
+        double[] head = new double[pad];
+        double[] tail = new double[pad];
+        for (int i = 0; i < pad; i++) {
+            head[i] = 2 * first - x[off + pad - i];
+            tail[i] = 2 * last - x[end - 1 - i];
+        }
+
+        // Forward over head, x and tail; the filtered head is not needed
+        steadyState(head[0]);
+        forward(head, 0, pad);
+        for (int start = off; start <= end; start += CHUNK) {
+            forward(x, start, Math.min(CHUNK, end + 1 - start));
+        }
+        forward(tail, 0, pad);
+
+        // Backward over tail, x and head
+        steadyState(tail[pad - 1]);
+        backward(tail, 0, pad);
+        for (int stop = end + 1; stop > off; stop -= CHUNK) {
+            int start = Math.max(off, stop - CHUNK);
+            backward(x, start, stop - start);
+        }
+    }
+
+    private void forward(double[] x, int start, int n) {
+        for (int s = 0, z = 0; s < sos.length; s++, z += 2) {
+            double[] c = sos[s];
+            double z1 = state[z], z2 = state[z + 1];
+            for (int k = start; k < start + n; k++) {
+                double in = x[k];
+                double y = c[0] * in + z1;
+                z1 = c[1] * in - c[3] * y + z2;
+                z2 = c[2] * in - c[4] * y;
+                x[k] = y;
+            }
+            state[z] = z1;
+            state[z + 1] = z2;
+        }
+    }
+
+    private void backward(double[] x, int start, int n) {
+        for (int s = 0, z = 0; s < sos.length; s++, z += 2) {
+            double[] c = sos[s];
+            double z1 = state[z], z2 = state[z + 1];
+            for (int k = start + n - 1; k >= start; k--) {
+                double in = x[k];
+                double y = c[0] * in + z1;
+                z1 = c[1] * in - c[3] * y + z2;
+                z2 = c[2] * in - c[4] * y;
+                x[k] = y;
+            }
+            state[z] = z1;
+            state[z + 1] = z2;
+        }
+    }
+
+    // State as if x had been the input forever, see BiquadCascade.reset(double)
+    private void steadyState(double x) {
+        for (int s = 0, z = 0; s < sos.length; s++, z += 2) {
+            double[] c = sos[s];
+            double sumA = 1 + c[3] + c[4];
+            double y = sumA == 0 ? 0 : x * (c[0] + c[1] + c[2]) / sumA;
+            state[z + 1] = c[2] * x - c[4] * y;
+            state[z] = c[1] * x - c[3] * y + state[z + 1];
+            x = y;
+        }
+    }
+}
@@ -21,6 +21,10 @@
  */
 package emgsignal.v3;
 
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
 import android.app.Service;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
@@ -34,67 +38,200 @@ import android.bluetooth.BluetoothProfile;
 import android.content.Context;
 import android.content.Intent;
 import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
 import android.os.IBinder;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.support.v4.app.NotificationCompat;
 import android.support.v4.content.LocalBroadcastManager;
 import android.util.Log;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import emgsignal.v3.Acquisition.AcquisitionThread;
+import emgsignal.v3.Acquisition.FrameRingBuffer;
+import emgsignal.v3.BLE.GattOperationQueue;
 
 /**
- * Service for managing connection and emgsignal.v3.data communication with a GATT server hosted on a
- * given Bluetooth LE device.
+ * Service for managing connection and emgsignal.v3.data communication with GATT servers hosted on
+ * one or more Bluetooth LE devices. Every device gets its own connection and its own ring of
+ * TX notifications; broadcasts carry the device address in {@link #EXTRA_ADDRESS}.
+ * The methods without an address act on the device connected last.
+ * A link that drops on its own is reconnected with exponential backoff, keeping the
+ * device's ring so the recording resumes where it stopped.
+ * Writes and reads go through a {@link GattOperationQueue} per device, so a command sent
+ * while another operation is in flight is not dropped.
+ * The service also owns the recording session: the {@link AcquisitionThread} that decodes,
+ * filters and stores the samples lives here, and while any device is connected the service
+ * runs in the foreground and holds a partial wake lock. Activities only attach a render
+ * listener, so a session survives activity recreation and the screen turning off.
  */
 public class UartService extends Service {
     public final static String TAG = UartService.class.getSimpleName();
     public static final int STATE_DISCONNECTED = 0;
     public static final int STATE_CONNECTING = 1;
     public static final int STATE_CONNECTED = 2;
+    public static final int STATE_RECONNECTING = 3;
     public final static String ACTION_GATT_CONNECTED =
             "com.nordicsemi.nrfUART.ACTION_GATT_CONNECTED";
     public final static String ACTION_GATT_DISCONNECTED =
             "com.nordicsemi.nrfUART.ACTION_GATT_DISCONNECTED";
+    // The link dropped and is being brought back, ACTION_GATT_DISCONNECTED follows if that fails
+    public final static String ACTION_GATT_RECONNECTING =
+            "com.nordicsemi.nrfUART.ACTION_GATT_RECONNECTING";
     public final static String ACTION_GATT_SERVICES_DISCOVERED =
             "com.nordicsemi.nrfUART.ACTION_GATT_SERVICES_DISCOVERED";
     public final static String ACTION_DATA_AVAILABLE =
             "com.nordicsemi.nrfUART.ACTION_DATA_AVAILABLE";
     public final static String EXTRA_DATA =
             "com.nordicsemi.nrfUART.EXTRA_DATA";
+    public final static String ACTION_MTU_CHANGED =
+            "com.nordicsemi.nrfUART.ACTION_MTU_CHANGED";
+    public final static String EXTRA_MTU =
+            "com.nordicsemi.nrfUART.EXTRA_MTU";
     public final static String DEVICE_DOES_NOT_SUPPORT_UART =
             "com.nordicsemi.nrfUART.DEVICE_DOES_NOT_SUPPORT_UART";
+    public final static String EXTRA_ADDRESS =
+            "com.nordicsemi.nrfUART.EXTRA_ADDRESS";
+    // Set on ACTION_GATT_CONNECTED and ACTION_GATT_SERVICES_DISCOVERED after an automatic reconnect
+    public final static String EXTRA_RECONNECTED =
+            "com.nordicsemi.nrfUART.EXTRA_RECONNECTED";
+    public final static String EXTRA_RECONNECT_LATENCY_MS =
+            "com.nordicsemi.nrfUART.EXTRA_RECONNECT_LATENCY_MS";
+    // ATT default, 20 bytes of payload per notification
+    public static final int DEFAULT_MTU = 23;
+    // Largest MTU Android will request, 512 bytes of payload
+    private static final int REQUESTED_MTU = 517;
     public static final UUID CCCD = UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
     public static final UUID RX_SERVICE_UUID = UUID.fromString("6e400001-b5a3-f393-e0a9-e50e24dcca9e");
     public static final UUID RX_CHAR_UUID = UUID.fromString("6e400002-b5a3-f393-e0a9-e50e24dcca9e");
     public static final UUID TX_CHAR_UUID = UUID.fromString("6e400003-b5a3-f393-e0a9-e50e24dcca9e");
+    // Frames of 40 bytes (20 samples) queued before the producer starts dropping, 30 s at 1 kHz;
+    // the ring rounds the size up to a power of 2
+    private static final int FRAME_BUFFER_FRAMES = 1500;
+    private static final int FRAME_BUFFER_SIZE = FRAME_BUFFER_FRAMES * (FrameRingBuffer.HEADER_SIZE + 40);
+    // Reconnect backoff: 250 ms, 500 ms, 1 s, ... up to 8 s between attempts
+    private static final long RECONNECT_INITIAL_DELAY_MS = 250;
+    private static final long RECONNECT_MAX_DELAY_MS = 8000;
+    private static final int RECONNECT_MAX_ATTEMPTS = 12;
+    // A connection attempt that has not succeeded by then is abandoned
+    private static final long CONNECT_TIMEOUT_MS = 5000;
+    // Runs the reconnect state machine
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private static final int NOTIFICATION_ID = 1;
+    private static final String NOTIFICATION_CHANNEL_ID = "recording";
+    private static final String WAKE_LOCK_TAG = "EMG:recording";
     public final IBinder mBinder = new LocalBinder();
     BluetoothManager mBluetoothManager;
     BluetoothAdapter mBluetoothAdapter;
+    // Device connected last, used by the methods that take no address
     String mBluetoothDeviceAddress;
-    BluetoothGatt mBluetoothGatt;
-    int mConnectionState = STATE_DISCONNECTED;
+    // Open connections by device address, touched from binder threads and the main thread
+    final ConcurrentHashMap<String, SensorConnection> mConnections = new ConcurrentHashMap<>();
+    // Recording session
+    private AcquisitionThread mAcquisition;
+    private volatile AcquisitionThread.Listener mRenderListener;
+    private PowerManager.WakeLock mWakeLock;
+    private boolean mSessionActive = false;
+    // uptimeMillis when the user started saving, 0 when not saving
+    private volatile long mRecordingStartTime = 0;
     public final BluetoothGattCallback mGattCallback = new BluetoothGattCallback() {
         @Override
         public void onConnectionStateChange(BluetoothGatt gatt, int status, int newState) {
             String intentAction;
+            SensorConnection connection = getConnection(gatt);
+            if (connection == null) {
+                return;
+            }
 
             if (newState == BluetoothProfile.STATE_CONNECTED) {
                 intentAction = ACTION_GATT_CONNECTED;
-                mConnectionState = STATE_CONNECTED;
-                broadcastUpdate(intentAction);
-                Log.i(TAG, "Connected to GATT server.");
-                // Attempts to discover services after successful connection.
-                Log.i(TAG, "Attempting to start service discovery:" +
-                        mBluetoothGatt.discoverServices());
+                final Intent intent = new Intent(intentAction);
+                intent.putExtra(EXTRA_ADDRESS, connection.address);
+                if (connection.state == STATE_RECONNECTING) {
+                    mHandler.removeCallbacks(connection.connectTimeout);
+                    long latency = SystemClock.uptimeMillis() - connection.linkLostAt;
+                    connection.onReconnected(latency);
+                    intent.putExtra(EXTRA_RECONNECTED, true);
+                    intent.putExtra(EXTRA_RECONNECT_LATENCY_MS, latency);
+                    Log.i(TAG, "Reconnected to " + connection.address + " after " + latency + " ms and "
+                            + connection.reconnectAttempts + " attempts, " + connection.reconnects
+                            + " reconnects so far (max " + connection.maxReconnectLatencyMs + " ms)");
+                } else {
+                    connection.resumed = false;
+                    AcquisitionThread acquisition = mAcquisition;
+                    if (acquisition != null) {
+                        acquisition.startAcquisition(connection.address, connection.frameBuffer);
+                    }
+                }
+                connection.state = STATE_CONNECTED;
+                connection.autoReconnect = true;
+                connection.mtu = DEFAULT_MTU;
+                LocalBroadcastManager.getInstance(UartService.this).sendBroadcast(intent);
+                Log.i(TAG, "Connected to GATT server " + connection.address + ".");
+                // Ask for the shortest connection interval and the largest MTU first. Only one
+                // GATT request may be outstanding, so service discovery waits for onMtuChanged.
+                Log.i(TAG, "Requesting high connection priority:" +
+                        gatt.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH));
+                if (!gatt.requestMtu(REQUESTED_MTU)) {
+                    Log.w(TAG, "MTU request failed, keeping " + connection.mtu);
+                    // Attempts to discover services after successful connection.
+                    Log.i(TAG, "Attempting to start service discovery:" +
+                            gatt.discoverServices());
+                }
 
             } else if (newState == BluetoothProfile.STATE_DISCONNECTED) {
+                if (connection.state == STATE_RECONNECTING) {
+                    // This attempt failed, try again later
+                    mHandler.removeCallbacks(connection.connectTimeout);
+                    scheduleReconnect(connection);
+                    return;
+                }
+                connection.operations.clear();
+                if (connection.autoReconnect && connection.state == STATE_CONNECTED) {
+                    Log.w(TAG, "Link to " + connection.address + " lost (status " + status + "), reconnecting");
+                    connection.state = STATE_RECONNECTING;
+                    connection.linkLostAt = SystemClock.uptimeMillis();
+                    connection.reconnectAttempts = 0;
+                    broadcastUpdate(ACTION_GATT_RECONNECTING, connection.address);
+                    scheduleReconnect(connection);
+                    return;
+                }
                 intentAction = ACTION_GATT_DISCONNECTED;
-                mConnectionState = STATE_DISCONNECTED;
-                Log.i(TAG, "Disconnected from GATT server.");
-                broadcastUpdate(intentAction);
+                connection.state = STATE_DISCONNECTED;
+                endConnection(connection);
+                Log.i(TAG, "Disconnected from GATT server " + connection.address + ".");
+                broadcastUpdate(intentAction, connection.address);
             }
         }
 
 
+        @Override
+        public void onMtuChanged(BluetoothGatt gatt, int mtu, int status) {
+            SensorConnection connection = getConnection(gatt);
+            if (connection == null) {
+                return;
+            }
+            if (status == BluetoothGatt.GATT_SUCCESS) {
+                connection.mtu = mtu;
+            }
+            Log.i(TAG, connection.address + " MTU negotiated: " + connection.mtu + " (status " + status + "), "
+                    + (connection.mtu - 3) + " bytes per notification");
+            final Intent intent = new Intent(ACTION_MTU_CHANGED);
+            intent.putExtra(EXTRA_ADDRESS, connection.address);
+            intent.putExtra(EXTRA_MTU, connection.mtu);
+            LocalBroadcastManager.getInstance(UartService.this).sendBroadcast(intent);
+
+            Log.i(TAG, "Attempting to start service discovery:" +
+                    gatt.discoverServices());
+        }
+
         //public String serviceUUID;
 
         @Override
@@ -103,16 +240,24 @@ public class UartService extends Service {
 
             if (status == BluetoothGatt.GATT_SUCCESS) {
 
-                BluetoothGattService mBluetoothGattService = mBluetoothGatt.getService(RX_SERVICE_UUID);
+                BluetoothGattService mBluetoothGattService = gatt.getService(RX_SERVICE_UUID);
                 if (mBluetoothGattService != null) {
                     Log.i(TAG, "Service characteristic UUID found: " + mBluetoothGattService.getUuid().toString());
                 } else {
                     Log.i(TAG, "Service characteristic not found for UUID: " + RX_SERVICE_UUID);
                 }
 
-                Log.w(TAG, "mBluetoothGatt = " + mBluetoothGatt);
+                Log.w(TAG, "mBluetoothGatt = " + gatt);
 
-                broadcastUpdate(ACTION_GATT_SERVICES_DISCOVERED);
+                SensorConnection connection = getConnection(gatt);
+                if (connection != null) {
+                    connection.operations.setGatt(gatt);
+                }
+
+                final Intent intent = new Intent(ACTION_GATT_SERVICES_DISCOVERED);
+                intent.putExtra(EXTRA_ADDRESS, gatt.getDevice().getAddress());
+                intent.putExtra(EXTRA_RECONNECTED, connection != null && connection.resumed);
+                LocalBroadcastManager.getInstance(UartService.this).sendBroadcast(intent);
             } else {
                 Log.w(TAG, "onServicesDiscovered received: " + status);
             }
@@ -122,26 +267,281 @@ public class UartService extends Service {
         public void onCharacteristicRead(BluetoothGatt gatt,
                                          BluetoothGattCharacteristic characteristic,
                                          int status) {
+            completeOperation(gatt, GattOperationQueue.OP_READ_CHARACTERISTIC, status);
             if (status == BluetoothGatt.GATT_SUCCESS) {
-                broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
+                broadcastUpdate(ACTION_DATA_AVAILABLE, gatt, characteristic);
             }
         }
 
+        @Override
+        public void onCharacteristicWrite(BluetoothGatt gatt,
+                                          BluetoothGattCharacteristic characteristic,
+                                          int status) {
+            completeOperation(gatt, GattOperationQueue.OP_WRITE_CHARACTERISTIC, status);
+        }
+
+        @Override
+        public void onDescriptorWrite(BluetoothGatt gatt, BluetoothGattDescriptor descriptor,
+                                      int status) {
+            completeOperation(gatt, GattOperationQueue.OP_WRITE_DESCRIPTOR, status);
+        }
+
         @Override
         public void onCharacteristicChanged(BluetoothGatt gatt,
                                             BluetoothGattCharacteristic characteristic) {
-            broadcastUpdate(ACTION_DATA_AVAILABLE, characteristic);
+            // TX notifications go straight into the device's ring buffer, no Intent per packet.
+            // The arrival time is taken first so every device is stamped on the same clock.
+            if (TX_CHAR_UUID.equals(characteristic.getUuid())) {
+                long arrivalNanos = SystemClock.elapsedRealtimeNanos();
+                SensorConnection connection = getConnection(gatt);
+                if (connection != null) {
+                    connection.frameBuffer.write(characteristic.getValue(), arrivalNanos);
+                }
+            } else {
+                broadcastUpdate(ACTION_DATA_AVAILABLE, gatt, characteristic);
+            }
+        }
+    };
+
+    /**
+     * One GATT connection and the ring its TX notifications are written to.
+     * The ring outlives reconnects, so frames keep their sequence numbers across a dropout.
+     */
+    class SensorConnection {
+        final String address;
+        final FrameRingBuffer frameBuffer = new FrameRingBuffer(FRAME_BUFFER_SIZE);
+        volatile BluetoothGatt gatt;
+        volatile int state = STATE_DISCONNECTED;
+        volatile int mtu = DEFAULT_MTU;
+        final GattOperationQueue operations = new GattOperationQueue(mHandler);
+        // Cleared by disconnect() and close(), so only unexpected drops are reconnected
+        volatile boolean autoReconnect = false;
+        // True from a successful reconnect until the next connect()
+        volatile boolean resumed = false;
+        volatile int reconnectAttempts = 0;
+        volatile long linkLostAt = 0;
+
+        // Reconnection metrics
+        volatile int reconnects = 0;
+        volatile int failedReconnects = 0;
+        volatile long lastReconnectLatencyMs = 0;
+        volatile long maxReconnectLatencyMs = 0;
+        volatile long totalDowntimeMs = 0;
+
+        final Runnable reconnect = new Runnable() {
+            @Override
+            public void run() {
+                attemptReconnect(SensorConnection.this);
+            }
+        };
+        final Runnable connectTimeout = new Runnable() {
+            @Override
+            public void run() {
+                if (state == STATE_RECONNECTING) {
+                    Log.w(TAG, "Reconnect attempt " + reconnectAttempts + " to " + address + " timed out");
+                    scheduleReconnect(SensorConnection.this);
+                }
+            }
+        };
+
+        SensorConnection(String address) {
+            this.address = address;
+        }
+
+        void onReconnected(long latency) {
+            resumed = true;
+            reconnects++;
+            lastReconnectLatencyMs = latency;
+            maxReconnectLatencyMs = Math.max(maxReconnectLatencyMs, latency);
+            totalDowntimeMs += latency;
+        }
+    }
+
+    private void scheduleReconnect(SensorConnection connection) {
+        int attempts = Math.min(connection.reconnectAttempts, 16);
+        long delay = Math.min(RECONNECT_INITIAL_DELAY_MS << attempts, RECONNECT_MAX_DELAY_MS);
+        mHandler.removeCallbacks(connection.reconnect);
+        mHandler.postDelayed(connection.reconnect, delay);
+    }
+
+    // Main thread. A fresh gatt is opened each time, reusing a dropped one is unreliable.
+    private void attemptReconnect(SensorConnection connection) {
+        if (!connection.autoReconnect || connection.state != STATE_RECONNECTING) {
+            return;
+        }
+        if (connection.reconnectAttempts >= RECONNECT_MAX_ATTEMPTS || mBluetoothAdapter == null) {
+            Log.w(TAG, "Giving up on " + connection.address + " after " + connection.reconnectAttempts + " attempts");
+            connection.autoReconnect = false;
+            connection.failedReconnects++;
+            connection.state = STATE_DISCONNECTED;
+            endConnection(connection);
+            broadcastUpdate(ACTION_GATT_DISCONNECTED, connection.address);
+            return;
+        }
+        connection.reconnectAttempts++;
+        BluetoothGatt old = connection.gatt;
+        if (old != null) {
+            old.close();
+        }
+        connection.operations.clear();
+        BluetoothDevice device = mBluetoothAdapter.getRemoteDevice(connection.address);
+        connection.gatt = device.connectGatt(this, false, mGattCallback);
+        mHandler.postDelayed(connection.connectTimeout, CONNECT_TIMEOUT_MS);
+    }
+
+    private void completeOperation(BluetoothGatt gatt, int type, int status) {
+        SensorConnection connection = getConnection(gatt);
+        if (connection != null) {
+            connection.operations.onComplete(type, status);
+        }
+    }
+
+    // The link is gone for good, stop draining its ring and release the gatt
+    private void endConnection(SensorConnection connection) {
+        AcquisitionThread acquisition = mAcquisition;
+        if (acquisition != null) {
+            acquisition.stopAcquisition(connection.address);
+        }
+        connection.operations.clear();
+        BluetoothGatt gatt = connection.gatt;
+        if (gatt != null) {
+            gatt.close();
+            connection.gatt = null;
+        }
+        updateSession();
+    }
+
+    /**
+     * Creates the acquisition thread of the session on first use; later calls, e.g. from a
+     * recreated activity, return the running thread with its original parameters.
+     */
+    public synchronized AcquisitionThread openSession(int fs, int mains, int channels, int decimation) {
+        if (mAcquisition == null) {
+            mAcquisition = new AcquisitionThread(mRenderProxy, fs, mains, channels, decimation);
+            mAcquisition.start();
+        }
+        return mAcquisition;
+    }
+
+    public AcquisitionThread getAcquisition() {
+        return mAcquisition;
+    }
+
+    // Live plot batches go to listener, null while no activity is showing them
+    public void setRenderListener(AcquisitionThread.Listener listener) {
+        mRenderListener = listener;
+    }
+
+    private final AcquisitionThread.Listener mRenderProxy = new AcquisitionThread.Listener() {
+        @Override
+        public void onRenderBatch(int source, double[] x, double[] y, double[] envelope, int count) {
+            AcquisitionThread.Listener listener = mRenderListener;
+            if (listener != null) {
+                listener.onRenderBatch(source, x, y, envelope, count);
+            }
+        }
+
+        @Override
+        public void onFatigueUpdate(int source, double x, double[] meanFrequency, double[] medianFrequency) {
+            AcquisitionThread.Listener listener = mRenderListener;
+            if (listener != null) {
+                listener.onFatigueUpdate(source, x, meanFrequency, medianFrequency);
+            }
         }
     };
 
+    // True while a device is connected or being reconnected
+    public synchronized boolean isSessionActive() {
+        return mSessionActive;
+    }
+
+    public long getRecordingStartTime() {
+        return mRecordingStartTime;
+    }
+
+    public void setRecordingStartTime(long uptimeMillis) {
+        mRecordingStartTime = uptimeMillis;
+    }
+
+    /**
+     * Runs the service in the foreground with a partial wake lock from the first device
+     * connecting until the last one is gone, and as a plain bound service otherwise.
+     */
+    private synchronized void updateSession() {
+        boolean active = false;
+        for (SensorConnection connection : mConnections.values()) {
+            if (connection.gatt != null || connection.state == STATE_RECONNECTING) {
+                active = true;
+                break;
+            }
+        }
+        if (active == mSessionActive) {
+            return;
+        }
+        mSessionActive = active;
+        if (active) {
+            // Started as well as bound, so unbinding does not destroy the service
+            startService(new Intent(this, UartService.class));
+            startForeground(NOTIFICATION_ID, buildNotification());
+            if (mWakeLock == null) {
+                PowerManager powerManager = (PowerManager) getSystemService(Context.POWER_SERVICE);
+                mWakeLock = powerManager.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, WAKE_LOCK_TAG);
+                mWakeLock.setReferenceCounted(false);
+            }
+            mWakeLock.acquire();
+            Log.i(TAG, "Recording session started");
+        } else {
+            if (mWakeLock != null) {
+                mWakeLock.release();
+            }
+            stopForeground(true);
+            stopSelf();
+            Log.i(TAG, "Recording session ended");
+        }
+    }
+
+    private Notification buildNotification() {
+        Intent intent = new Intent(this, MainActivity.class);
+        intent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        PendingIntent pendingIntent = PendingIntent.getActivity(this, 0, intent, 0);
+        return new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL_ID)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText(getString(R.string.recording_notification))
+                .setContentIntent(pendingIntent)
+                .setOngoing(true)
+                .build();
+    }
+
+    private void stopReconnecting(SensorConnection connection) {
+        connection.autoReconnect = false;
+        mHandler.removeCallbacks(connection.reconnect);
+        mHandler.removeCallbacks(connection.connectTimeout);
+    }
+
+    SensorConnection getConnection(BluetoothGatt gatt) {
+        return mConnections.get(gatt.getDevice().getAddress());
+    }
+
+    SensorConnection getConnection(String address) {
+        return address == null ? null : mConnections.get(address);
+    }
+
     public void broadcastUpdate(final String action) {
         final Intent intent = new Intent(action);
         LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
     }
 
-    public void broadcastUpdate(final String action,
+    public void broadcastUpdate(final String action, final String address) {
+        final Intent intent = new Intent(action);
+        intent.putExtra(EXTRA_ADDRESS, address);
+        LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
+    }
+
+    public void broadcastUpdate(final String action, final BluetoothGatt gatt,
                                 final BluetoothGattCharacteristic characteristic) {
         final Intent intent = new Intent(action);
+        intent.putExtra(EXTRA_ADDRESS, gatt.getDevice().getAddress());
 
         // This is handling for the notification on TX Character of NUS service
         if (TX_CHAR_UUID.equals(characteristic.getUuid())) {
@@ -162,6 +562,22 @@ public class UartService extends Service {
         LocalBroadcastManager.getInstance(this).sendBroadcast(intent);
     }
 
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(NOTIFICATION_CHANNEL_ID,
+                    getString(R.string.recording_channel), NotificationManager.IMPORTANCE_LOW);
+            ((NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE)).createNotificationChannel(channel);
+        }
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // The gatt connections cannot be restored after the process was killed
+        return START_NOT_STICKY;
+    }
+
     @Override
     public IBinder onBind(Intent intent) {
         return mBinder;
@@ -171,10 +587,33 @@ public class UartService extends Service {
     public boolean onUnbind(Intent intent) {
         // After using a given device, you should make sure that BluetoothGatt.close() is called
         // such that resources are cleaned up properly.  In this particular example, close() is
-        // invoked when the UI is disconnected from the Service.
+        // invoked when the UI is disconnected from the Service, unless a recording is running.
         Log.w(TAG, "UNBINDING");
+        mRenderListener = null;
+        if (!isSessionActive()) {
+            close();
+        }
+        // Get onRebind() when the activity comes back
+        return true;
+    }
+
+    @Override
+    public void onRebind(Intent intent) {
+        Log.w(TAG, "REBINDING");
+        super.onRebind(intent);
+    }
+
+    @Override
+    public void onDestroy() {
         close();
-        return super.onUnbind(intent);
+        if (mAcquisition != null) {
+            mAcquisition.quitSafely();
+            mAcquisition = null;
+        }
+        if (mWakeLock != null) {
+            mWakeLock.release();
+        }
+        super.onDestroy();
     }
 
     /**
@@ -204,7 +643,8 @@ public class UartService extends Service {
     }
 
     /**
-     * Connects to the GATT server hosted on the Bluetooth LE device.
+     * Connects to the GATT server hosted on the Bluetooth LE device. Devices already
+     * connected stay connected, so calling this for several addresses streams from all of them.
      *
      * @param address The device address of the destination device.
      * @return Return true if the connection is initiated successfully. The connection result
@@ -221,11 +661,13 @@ public class UartService extends Service {
         }
 
         // Previously connected device.  Try to reconnect.
-        if (mBluetoothDeviceAddress != null && address.equals(mBluetoothDeviceAddress)
-                && mBluetoothGatt != null) {
+        SensorConnection connection = mConnections.get(address);
+        if (connection != null && connection.gatt != null) {
             Log.d(TAG, "Trying to use an existing mBluetoothGatt for connection.");
-            if (mBluetoothGatt.connect()) {
-                mConnectionState = STATE_CONNECTING;
+            stopReconnecting(connection);
+            if (connection.gatt.connect()) {
+                connection.state = STATE_CONNECTING;
+                mBluetoothDeviceAddress = address;
                 return true;
             } else {
                 return false;
@@ -237,46 +679,91 @@ public class UartService extends Service {
             Log.w(TAG, "Device not found.  Unable to connect.");
             return false;
         }
+        if (connection == null) {
+            connection = new SensorConnection(address);
+            mConnections.put(address, connection);
+        }
+        stopReconnecting(connection);
+        connection.state = STATE_CONNECTING;
         // We want to directly connect to the device, so we are setting the autoConnect
         // parameter to false.
-        mBluetoothGatt = device.connectGatt(this, false, mGattCallback);
+        connection.gatt = device.connectGatt(this, false, mGattCallback);
         Log.d(TAG, "Trying to create a new connection.");
         mBluetoothDeviceAddress = address;
-        mConnectionState = STATE_CONNECTING;
+        updateSession();
         return true;
     }
 
     /**
-     * Disconnects an existing connection or cancel a pending connection. The disconnection result
+     * Disconnects every device or cancels pending connections. The disconnection result
      * is reported asynchronously through the
      * {@code BluetoothGattCallback#onConnectionStateChange(android.bluetooth.BluetoothGatt, int, int)}
      * callback.
      */
 
     public void disconnect() {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
+        if (mBluetoothAdapter == null || mConnections.isEmpty()) {
+            Log.w(TAG, "BluetoothAdapter not initialized");
+            return;
+        }
+        for (String address : mConnections.keySet()) {
+            disconnect(address);
+        }
+    }
+
+    public void disconnect(String address) {
+        SensorConnection connection = getConnection(address);
+        if (connection != null) {
+            stopReconnecting(connection);
+        }
+        if (mBluetoothAdapter == null || connection == null || connection.gatt == null) {
             Log.w(TAG, "BluetoothAdapter not initialized");
             return;
         }
-        mBluetoothGatt.disconnect();
-        mBluetoothGatt.close();
+        connection.operations.clear();
+        connection.gatt.disconnect();
+        connection.gatt.close();
         /*190320*/
-        mBluetoothGatt = null;
+        connection.gatt = null;
+        // A closed gatt gets no more callbacks
+        connection.state = STATE_DISCONNECTED;
+        if (mAcquisition != null) {
+            mAcquisition.stopAcquisition(address);
+        }
+        updateSession();
     }
 
     /**
-     * After using a given BLE device, the app must call this method to ensure resources are
+     * After using the BLE devices, the app must call this method to ensure resources are
      * released properly.
      */
 
     public void close() {
-        if (mBluetoothGatt == null) {
+        for (String address : mConnections.keySet()) {
+            close(address);
+        }
+    }
+
+    public void close(String address) {
+        SensorConnection connection = getConnection(address);
+        if (connection == null) {
             return;
         }
-        Log.w(TAG, "mBluetoothGatt closed");
-        mBluetoothDeviceAddress = null;
-        mBluetoothGatt.close();
-        mBluetoothGatt = null;
+        stopReconnecting(connection);
+        mConnections.remove(address);
+        if (address.equals(mBluetoothDeviceAddress)) {
+            mBluetoothDeviceAddress = null;
+        }
+        if (mAcquisition != null) {
+            mAcquisition.stopAcquisition(address);
+        }
+        if (connection.gatt != null) {
+            Log.w(TAG, "mBluetoothGatt closed " + address);
+            connection.operations.clear();
+            connection.gatt.close();
+            connection.gatt = null;
+        }
+        updateSession();
     }
 
     /**
@@ -288,11 +775,12 @@ public class UartService extends Service {
      */
 
     public void readCharacteristic(BluetoothGattCharacteristic characteristic) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
+        SensorConnection connection = getConnection(mBluetoothDeviceAddress);
+        if (mBluetoothAdapter == null || connection == null || connection.gatt == null) {
             Log.w(TAG, "BluetoothAdapter not initialized");
             return;
         }
-        mBluetoothGatt.readCharacteristic(characteristic);
+        connection.operations.readCharacteristic(characteristic);
     }
 
     /**
@@ -301,39 +789,55 @@ public class UartService extends Service {
      */
 
     public void enableTXNotification() {
+        enableTXNotification(mBluetoothDeviceAddress);
+    }
 
-        if (mBluetoothGatt == null) {
-            showMessage("mBluetoothGatt null" + mBluetoothGatt);
-            broadcastUpdate(DEVICE_DOES_NOT_SUPPORT_UART);
+    public void enableTXNotification(String address) {
+        BluetoothGatt gatt = getGatt(address);
+        if (gatt == null) {
+            showMessage("mBluetoothGatt null for " + address);
+            broadcastUpdate(DEVICE_DOES_NOT_SUPPORT_UART, address);
             return;
         }
 
-        BluetoothGattService RxService = mBluetoothGatt.getService(RX_SERVICE_UUID);
+        BluetoothGattService RxService = gatt.getService(RX_SERVICE_UUID);
         if (RxService == null) {
             showMessage("Rx service not found!");
-            broadcastUpdate(DEVICE_DOES_NOT_SUPPORT_UART);
+            broadcastUpdate(DEVICE_DOES_NOT_SUPPORT_UART, address);
             return;
         }
         BluetoothGattCharacteristic TxChar = RxService.getCharacteristic(TX_CHAR_UUID);
         if (TxChar == null) {
             showMessage("Tx charateristic not found!");
-            broadcastUpdate(DEVICE_DOES_NOT_SUPPORT_UART);
+            broadcastUpdate(DEVICE_DOES_NOT_SUPPORT_UART, address);
             return;
         }
-        mBluetoothGatt.setCharacteristicNotification(TxChar, true);
+        gatt.setCharacteristicNotification(TxChar, true);
 
+        // Queued, so a mode command written right after this waits for the descriptor write
         BluetoothGattDescriptor descriptor = TxChar.getDescriptor(CCCD);
-        descriptor.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
-        mBluetoothGatt.writeDescriptor(descriptor);
+        getConnection(address).operations.writeDescriptor(descriptor, BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
 
     }
 
+    // Sends value to every connected device, e.g. the time sync
     public void writeRXCharacteristic(String value) {
-        if (mBluetoothAdapter == null || mBluetoothGatt == null) {
+        if (mBluetoothAdapter == null || mConnections.isEmpty()) {
             Log.w(TAG, "BluetoothAdapter not initialized");
             return;
         }
-        BluetoothGattService RxService = mBluetoothGatt.getService(RX_SERVICE_UUID);
+        for (String address : mConnections.keySet()) {
+            writeRXCharacteristic(address, value);
+        }
+    }
+
+    public void writeRXCharacteristic(String address, String value) {
+        BluetoothGatt gatt = getGatt(address);
+        if (mBluetoothAdapter == null || gatt == null) {
+            Log.w(TAG, "BluetoothAdapter not initialized");
+            return;
+        }
+        BluetoothGattService RxService = gatt.getService(RX_SERVICE_UUID);
         //showMessage("mBluetoothGatt null"+ mBluetoothGatt);
         if (RxService == null) {
             showMessage("Rx service not found!");
@@ -346,9 +850,88 @@ public class UartService extends Service {
             //broadcastUpdate(DEVICE_DOES_NOT_SUPPORT_UART);
             return;
         }*/
-        RxChar.setValue(value);
-        boolean status = mBluetoothGatt.writeCharacteristic(RxChar);
-        Log.d(TAG, "write TXchar - status=" + status);
+        SensorConnection connection = getConnection(address);
+        connection.operations.writeCharacteristic(RxChar, value.getBytes(StandardCharsets.UTF_8));
+        Log.d(TAG, "write TXchar " + address + " queued, " + connection.operations.getPendingCount() + " pending");
+    }
+
+    // Addresses of the devices currently connected, or being reconnected after a dropout
+    public List<String> getConnectedAddresses() {
+        List<String> addresses = new ArrayList<>();
+        for (SensorConnection connection : mConnections.values()) {
+            if (connection.state == STATE_CONNECTED || connection.state == STATE_RECONNECTING) {
+                addresses.add(connection.address);
+            }
+        }
+        return addresses;
+    }
+
+    public int getConnectionState(String address) {
+        SensorConnection connection = getConnection(address);
+        return connection == null ? STATE_DISCONNECTED : connection.state;
+    }
+
+    // Automatic reconnects of the device at address since it was first connected
+    public int getReconnectCount(String address) {
+        SensorConnection connection = getConnection(address);
+        return connection == null ? 0 : connection.reconnects;
+    }
+
+    // Reconnects abandoned after RECONNECT_MAX_ATTEMPTS
+    public int getFailedReconnectCount(String address) {
+        SensorConnection connection = getConnection(address);
+        return connection == null ? 0 : connection.failedReconnects;
+    }
+
+    // Time from losing the link to being connected again, for the last reconnect
+    public long getLastReconnectLatencyMs(String address) {
+        SensorConnection connection = getConnection(address);
+        return connection == null ? 0 : connection.lastReconnectLatencyMs;
+    }
+
+    public long getMaxReconnectLatencyMs(String address) {
+        SensorConnection connection = getConnection(address);
+        return connection == null ? 0 : connection.maxReconnectLatencyMs;
+    }
+
+    public long getTotalDowntimeMs(String address) {
+        SensorConnection connection = getConnection(address);
+        return connection == null ? 0 : connection.totalDowntimeMs;
+    }
+
+    // Write/read queue of the device at address, for its latency and timeout counters
+    public GattOperationQueue getOperationQueue(String address) {
+        SensorConnection connection = getConnection(address);
+        return connection == null ? null : connection.operations;
+    }
+
+    private BluetoothGatt getGatt(String address) {
+        SensorConnection connection = getConnection(address);
+        return connection == null ? null : connection.gatt;
+    }
+
+    /**
+     * Raw TX notification frames of the device connected last, written by the GATT binder
+     * thread. There must be a single consumer draining it.
+     */
+    public FrameRingBuffer getFrameBuffer() {
+        return getFrameBuffer(mBluetoothDeviceAddress);
+    }
+
+    // Ring of the device at address, null if it was never connected or has been closed
+    public FrameRingBuffer getFrameBuffer(String address) {
+        SensorConnection connection = getConnection(address);
+        return connection == null ? null : connection.frameBuffer;
+    }
+
+    // Negotiated ATT MTU, a notification carries up to getMtu() - 3 bytes
+    public int getMtu() {
+        return getMtu(mBluetoothDeviceAddress);
+    }
+
+    public int getMtu(String address) {
+        SensorConnection connection = getConnection(address);
+        return connection == null ? DEFAULT_MTU : connection.mtu;
     }
 
     public void showMessage(String msg) {
@@ -363,9 +946,10 @@ public class UartService extends Service {
      */
 
     public List<BluetoothGattService> getSupportedGattServices() {
-        if (mBluetoothGatt == null) return null;
+        BluetoothGatt gatt = getGatt(mBluetoothDeviceAddress);
+        if (gatt == null) return null;
 
-        return mBluetoothGatt.getServices();
+        return gatt.getServices();
     }
 
     public class LocalBinder extends Binder {
@@ -0,0 +1,144 @@
+package emgsignal.v3.Acquisition;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameRingBufferTest {
+    private static final int HEADER_SIZE = FrameRingBuffer.HEADER_SIZE;
+
+    private static byte[] frame(int len, int seed) {
+        byte[] frame = new byte[len];
+        for (int i = 0; i < len; i++) {
+            frame[i] = (byte) (seed * 31 + i);
+        }
+        return frame;
+    }
+
+    @Test
+    public void capacity_roundedUpToPowerOf2() {
+        assertEquals(1024, new FrameRingBuffer(1).capacity());
+        assertEquals(4096, new FrameRingBuffer(3000).capacity());
+        assertEquals(4096, new FrameRingBuffer(4096).capacity());
+    }
+
+    @Test
+    public void readFrame_wrapsHeaderAndPayloadAroundTheEnd() {
+        FrameRingBuffer ring = new FrameRingBuffer(1024);
+        byte[] dst = new byte[FrameRingBuffer.MAX_FRAME_SIZE];
+        int len = 40;
+        int headersSplit = 0;
+        int payloadsSplit = 0;
+        for (int i = 0; i < 600; i++) {
+            // 54 bytes per frame, so over 512 frames the header starts at every even offset
+            long pos = (long) i * (HEADER_SIZE + len) % ring.capacity();
+            if (pos + HEADER_SIZE > ring.capacity()) {
+                headersSplit++;
+            } else if (pos + HEADER_SIZE < ring.capacity() && pos + HEADER_SIZE + len > ring.capacity()) {
+                payloadsSplit++;
+            }
+            assertTrue(ring.write(frame(len, i), 1000L * i + 0x123456789L));
+            assertEquals(len, ring.readFrame(dst));
+            assertEquals(i, ring.getLastSequence());
+            assertEquals(1000L * i + 0x123456789L, ring.getLastArrivalNanos());
+            for (int k = 0; k < len; k++) {
+                assertEquals(frame(len, i)[k], dst[k]);
+            }
+            assertTrue(ring.isEmpty());
+        }
+        assertTrue(headersSplit > 0);
+        assertTrue(payloadsSplit > 0);
+    }
+
+    @Test
+    public void write_dropsWhenFullAndCountsTheSequence() {
+        FrameRingBuffer ring = new FrameRingBuffer(1024);
+        int len = 100;
+        // 114 bytes per frame, 8 fit in 1024
+        for (int i = 0; i < 8; i++) {
+            assertTrue(ring.write(frame(len, i), i));
+        }
+        assertEquals(8 * (HEADER_SIZE + len), ring.size());
+        assertFalse(ring.write(frame(len, 8), 8));
+        assertFalse(ring.write(frame(len, 9), 9));
+        assertEquals(8, ring.getWrittenFrames());
+        assertEquals(2, ring.getDroppedFrames());
+
+        byte[] dst = new byte[FrameRingBuffer.MAX_FRAME_SIZE];
+        assertEquals(len, ring.readFrame(dst));
+        assertEquals(0, ring.getLastSequence());
+        // One frame read makes room for exactly one more
+        assertTrue(ring.write(frame(len, 10), 10));
+        for (int i = 1; i < 8; i++) {
+            assertEquals(len, ring.readFrame(dst));
+            assertEquals(i, ring.getLastSequence());
+        }
+        // The dropped frames leave a hole in the sequence numbers
+        assertEquals(len, ring.readFrame(dst));
+        assertEquals(10, ring.getLastSequence());
+        assertEquals(frame(len, 10)[len - 1], dst[len - 1]);
+        assertEquals(-1, ring.readFrame(dst));
+    }
+
+    @Test
+    public void write_dropsInvalidFrames() {
+        FrameRingBuffer ring = new FrameRingBuffer(1024);
+        assertFalse(ring.write(null, 0));
+        assertFalse(ring.write(new byte[0], 0));
+        assertFalse(ring.write(new byte[FrameRingBuffer.MAX_FRAME_SIZE + 1], 0));
+        assertTrue(ring.write(new byte[FrameRingBuffer.MAX_FRAME_SIZE], 0));
+        assertEquals(3, ring.getDroppedFrames());
+        assertEquals(1, ring.getWrittenFrames());
+        assertEquals(FrameRingBuffer.MAX_FRAME_SIZE, ring.readFrame(new byte[FrameRingBuffer.MAX_FRAME_SIZE]));
+        assertEquals(3, ring.getLastSequence());
+    }
+
+    @Test
+    public void clear_dropsQueuedFrames() {
+        FrameRingBuffer ring = new FrameRingBuffer(1024);
+        ring.write(frame(20, 0), 0);
+        ring.write(frame(20, 1), 1);
+        ring.clear();
+        assertTrue(ring.isEmpty());
+        assertEquals(0, ring.size());
+        assertEquals(-1, ring.readFrame(new byte[FrameRingBuffer.MAX_FRAME_SIZE]));
+        ring.write(frame(20, 2), 2);
+        assertEquals(20, ring.readFrame(new byte[FrameRingBuffer.MAX_FRAME_SIZE]));
+        assertEquals(2, ring.getLastSequence());
+    }
+
+    @Test
+    public void producerAndConsumerThreads_seeEveryFrameInOrder() throws InterruptedException {
+        final FrameRingBuffer ring = new FrameRingBuffer(2048);
+        final int frames = 200000;
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < frames; i++) {
+                    byte[] frame = frame(20 + i % 37, i);
+                    while (!ring.write(frame, i)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+        byte[] dst = new byte[FrameRingBuffer.MAX_FRAME_SIZE];
+        int read = 0;
+        int lastArrival = -1;
+        while (read < frames) {
+            int len = ring.readFrame(dst);
+            if (len < 0) {
+                Thread.yield();
+                continue;
+            }
+            int i = (int) ring.getLastArrivalNanos();
+            assertEquals(lastArrival + 1, i);
+            assertEquals(20 + i % 37, len);
+            assertEquals(frame(len, i)[len - 1], dst[len - 1]);
+            lastArrival = i;
+            read++;
+        }
+        producer.join();
+    }
+}
@@ -0,0 +1,120 @@
+package emgsignal.v3.Acquisition;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SampleStoreTest {
+    // Samples per chunk in SampleStore
+    private static final int CHUNK = 4096;
+
+    @Test
+    public void add_growsAcrossChunksAndTheChunkTable() {
+        SampleStore store = new SampleStore();
+        // More than the 16 chunks the table starts with
+        int n = 40 * CHUNK + 123;
+        for (int i = 0; i < n; i++) {
+            store.add(i);
+        }
+        assertEquals(n, store.size());
+        for (int i : new int[]{0, CHUNK - 1, CHUNK, 16 * CHUNK - 1, 16 * CHUNK, n - 1}) {
+            assertEquals(i, store.get(i), 0);
+        }
+    }
+
+    @Test
+    public void addAll_splitsAcrossChunkBoundaries() {
+        SampleStore store = new SampleStore();
+        store.add(-1);
+        float[] src = new float[3 * CHUNK];
+        for (int i = 0; i < src.length; i++) {
+            src[i] = i;
+        }
+        // From an offset, ending part way into the fourth chunk
+        store.addAll(src, 5, src.length - 5);
+        store.addAll(src, 0, 10);
+        assertEquals(1 + src.length - 5 + 10, store.size());
+        assertEquals(-1, store.get(0), 0);
+        for (int i = 1; i < src.length - 4; i++) {
+            assertEquals(i + 4, store.get(i), 0);
+        }
+        assertEquals(9, store.get(store.size() - 1), 0);
+    }
+
+    @Test
+    public void copyTo_rangeAcrossChunks() {
+        SampleStore store = new SampleStore();
+        for (int i = 0; i < 3 * CHUNK; i++) {
+            store.add(i);
+        }
+        double[] dst = new double[CHUNK + 20];
+        store.copyTo(CHUNK - 10, dst, 10, CHUNK + 10);
+        for (int i = 0; i < CHUNK + 10; i++) {
+            assertEquals(CHUNK - 10 + i, dst[10 + i], 0);
+        }
+        assertArrayEquals(new double[]{0, 1, 2}, subArray(store.toDoubleArray(), 3), 0);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void copyTo_rejectsRangePastTheEnd() {
+        SampleStore store = new SampleStore();
+        store.add(1);
+        store.copyTo(0, new double[2], 0, 2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_rejectsIndexPastTheEnd() {
+        SampleStore store = new SampleStore();
+        store.add(1);
+        store.get(1);
+    }
+
+    @Test
+    public void channelToDoubleArray_deinterleaves() {
+        SampleStore store = new SampleStore();
+        // Three channels, the last group incomplete
+        for (int i = 0; i < 3 * CHUNK + 2; i++) {
+            store.add(i % 3 * 1000 + i / 3);
+        }
+        double[] second = store.channelToDoubleArray(1, 3);
+        assertEquals(CHUNK, second.length);
+        for (int i = 0; i < second.length; i++) {
+            assertEquals(1000 + i, second[i], 0);
+        }
+    }
+
+    @Test
+    public void copy_isIndependent() {
+        SampleStore store = new SampleStore();
+        for (int i = 0; i < CHUNK + 1; i++) {
+            store.add(i);
+        }
+        SampleStore copy = store.copy();
+        store.add(-1);
+        store.clear();
+        assertTrue(store.isEmpty());
+        assertEquals(CHUNK + 1, copy.size());
+        assertEquals(CHUNK, copy.get(CHUNK), 0);
+        copy.add(7);
+        assertEquals(7, copy.get(CHUNK + 1), 0);
+    }
+
+    @Test
+    public void clear_startsAgain() {
+        SampleStore store = new SampleStore();
+        for (int i = 0; i < 2 * CHUNK; i++) {
+            store.add(i);
+        }
+        store.clear();
+        assertEquals(0, store.size());
+        store.add(5);
+        assertEquals(5, store.get(0), 0);
+        assertEquals(1, store.toDoubleArray().length);
+    }
+
+    private static double[] subArray(double[] x, int n) {
+        double[] out = new double[n];
+        System.arraycopy(x, 0, out, 0, n);
+        return out;
+    }
+}
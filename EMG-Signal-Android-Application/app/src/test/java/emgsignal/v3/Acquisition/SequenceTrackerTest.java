@@ -0,0 +1,128 @@
+package emgsignal.v3.Acquisition;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SequenceTrackerTest {
+    private static final double FS = 1000;
+    private static final int FRAME = 20;
+
+    /**
+     * Feeds frames of a sensor whose clock runs at rate instead of FS, delivered in order with
+     * 5 to 45 ms of delay and now and then a stall of 150 ms. Frames from lostFrom on, lost
+     * of them, are lost over the air, where the sequence number does not see them.
+     */
+    private static SequenceTracker stream(double rate, double minutes, int lostFrom, int lost) {
+        SequenceTracker tracker = new SequenceTracker(FS);
+        Random random = new Random(11);
+        int frames = (int) (minutes * 60 * rate / FRAME);
+        long arrival = 0;
+        int sequence = 0;
+        for (int j = 0; j < frames; j++) {
+            double sent = (j + 1) * FRAME / rate;
+            double delay = 0.005 + 0.04 * random.nextDouble() + (random.nextInt(100) == 0 ? 0.15 : 0);
+            arrival = Math.max(arrival, 3_000_000_000L + (long) ((sent + delay) * 1e9));
+            if (j >= lostFrom && j < lostFrom + lost) {
+                continue;
+            }
+            assertTrue(tracker.onFrame(sequence++, arrival, FRAME) >= 0);
+        }
+        return tracker;
+    }
+
+    @Test
+    public void onFrame_followsRateDriftWithoutGaps() {
+        // 32768 / 33 Hz is the usual nRF timer rate for a nominal 1 kHz
+        for (double rate : new double[]{FS, 999.9, 999, 32768 / 33.0, 1007}) {
+            SequenceTracker tracker = stream(rate, 20, -1, 0);
+            assertEquals("rate " + rate, 0, tracker.getTimingGaps());
+            assertEquals("rate " + rate, 0, tracker.getMissingSamples());
+            assertEquals("rate " + rate, FS / rate - 1, tracker.getDrift(), 2e-4);
+        }
+    }
+
+    @Test
+    public void onFrame_findsSuddenLossDespiteDrift() {
+        for (double rate : new double[]{FS, 32768 / 33.0, 1007}) {
+            // 40 frames, 800 samples, lost after 10 minutes
+            int lostFrom = (int) (10 * 60 * rate / FRAME);
+            SequenceTracker tracker = stream(rate, 20, lostFrom, 40);
+            assertEquals("rate " + rate, 1, tracker.getTimingGaps());
+            assertEquals("rate " + rate, 1, tracker.getGaps());
+            // Whole frames only, within the delivery jitter
+            assertEquals("rate " + rate, 0, tracker.getMissingSamples() % FRAME);
+            assertEquals("rate " + rate, 800, tracker.getMissingSamples(), 60);
+        }
+    }
+
+    @Test
+    public void onFrame_sequenceGapsAndDuplicates() {
+        SequenceTracker tracker = new SequenceTracker(FS);
+        long nanos = 20_000_000L;
+        assertEquals(0, tracker.onFrame(10, nanos, FRAME));
+        assertEquals(0, tracker.onFrame(11, 2 * nanos, FRAME));
+        // Frames 12 to 14 dropped on the phone
+        assertEquals(3 * FRAME, tracker.onFrame(15, 6 * nanos, FRAME));
+        assertEquals(-1, tracker.onFrame(15, 6 * nanos, FRAME));
+        assertEquals(-1, tracker.onFrame(13, 6 * nanos, FRAME));
+        assertEquals(0, tracker.onFrame(16, 7 * nanos, FRAME));
+        assertEquals(1, tracker.getGaps());
+        assertEquals(0, tracker.getTimingGaps());
+        assertEquals(3 * FRAME, tracker.getMissingSamples());
+        assertEquals(2, tracker.getDuplicateFrames());
+        assertEquals(6, tracker.getFrames());
+        assertEquals(7 * FRAME, tracker.getAccountedSamples());
+    }
+
+    @Test
+    public void onFrame_sequenceWrapsAround() {
+        SequenceTracker tracker = new SequenceTracker(FS);
+        long nanos = 20_000_000L;
+        int sequence = Integer.MAX_VALUE - 2;
+        for (int j = 0; j < 6; j++) {
+            assertEquals(0, tracker.onFrame(sequence++, (j + 1) * nanos, FRAME));
+        }
+        // One frame missing right after the wrap
+        assertEquals(FRAME, tracker.onFrame(sequence + 1, 8 * nanos, FRAME));
+        assertEquals(-1, tracker.onFrame(Integer.MAX_VALUE, 8 * nanos, FRAME));
+        assertEquals(1, tracker.getGaps());
+        assertEquals(1, tracker.getDuplicateFrames());
+    }
+
+    @Test
+    public void getSampleNanos_followsTheEarliestArrivals() {
+        SequenceTracker tracker = new SequenceTracker(FS);
+        long nanos = 20_000_000L;
+        // First frame 30 ms late, the next ones on time
+        tracker.onFrame(0, nanos + 30_000_000L, FRAME);
+        assertEquals(30_000_000L, tracker.getSampleNanos(0));
+        tracker.onFrame(1, 2 * nanos, FRAME);
+        tracker.onFrame(2, 3 * nanos + 5_000_000L, FRAME);
+        // Within the slow rise towards the later frame
+        assertEquals(0, tracker.getSampleNanos(0), 100_000);
+        assertEquals(3 * nanos, tracker.getSampleNanos(3 * FRAME), 100_000);
+    }
+
+    @Test
+    public void restart_forgetsTheClock() {
+        SequenceTracker tracker = stream(32768 / 33.0, 1, -1, 0);
+        tracker.restart();
+        assertFalse(tracker.isStarted());
+        assertEquals(0, tracker.onFrame(500, 1_000_000_000_000L, FRAME));
+        assertEquals(0, tracker.getDrift(), 0);
+        assertEquals(0, tracker.onFrame(501, 1_000_000_000_000L + 20_000_000L, FRAME));
+        assertEquals(0, tracker.getTimingGaps());
+    }
+
+    @Test
+    public void fillValue_interpolatesOrZeroes() {
+        SequenceTracker interpolate = new SequenceTracker(FS, 0.25, SequenceTracker.FILL_INTERPOLATE);
+        assertEquals(2, interpolate.fillValue(1, 3, 1, 5), 1e-12);
+        assertEquals(4, interpolate.fillValue(3, 3, 1, 5), 1e-12);
+        SequenceTracker zero = new SequenceTracker(FS, 0.25, SequenceTracker.FILL_ZERO);
+        assertEquals(0, zero.fillValue(2, 3, 1, 5), 0);
+    }
+}
@@ -0,0 +1,154 @@
+package emgsignal.v3.BLE;
+
+import android.bluetooth.BluetoothGatt;
+import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.UUID;
+
+import static org.junit.Assert.*;
+
+public class GattOperationQueueTest {
+    // Timeouts and retries are queued here and run by hand instead of on a Handler
+    private final ArrayList<Runnable> posted = new ArrayList<>();
+    // Characteristics read by the fake connection, in order
+    private final ArrayList<BluetoothGattCharacteristic> started = new ArrayList<>();
+    private boolean refuse = false;
+    private final GattOperationQueue queue;
+
+    public GattOperationQueueTest() {
+        queue = new GattOperationQueue(null) {
+            @Override
+            void post(Runnable runnable, long delayMs) {
+                posted.add(runnable);
+            }
+
+            @Override
+            void cancel(Runnable runnable) {
+                while (posted.remove(runnable)) {
+                }
+            }
+        };
+        queue.setTarget(new GattOperationQueue.Target() {
+            @Override
+            public boolean writeCharacteristic(BluetoothGattCharacteristic characteristic) {
+                return false;
+            }
+
+            @Override
+            public boolean writeDescriptor(BluetoothGattDescriptor descriptor) {
+                return false;
+            }
+
+            @Override
+            public boolean readCharacteristic(BluetoothGattCharacteristic characteristic) {
+                started.add(characteristic);
+                return !refuse;
+            }
+        });
+    }
+
+    private static BluetoothGattCharacteristic characteristic() {
+        return new BluetoothGattCharacteristic(UUID.randomUUID(), BluetoothGattCharacteristic.PROPERTY_READ, 0);
+    }
+
+    // Runs the oldest posted runnable
+    private void runPosted() {
+        assertFalse(posted.isEmpty());
+        posted.remove(0).run();
+    }
+
+    @Test
+    public void operationsRunOneAtATime() {
+        BluetoothGattCharacteristic a = characteristic();
+        BluetoothGattCharacteristic b = characteristic();
+        queue.readCharacteristic(a);
+        queue.readCharacteristic(b);
+        assertEquals(1, started.size());
+        assertEquals(2, queue.getPendingCount());
+
+        queue.onComplete(GattOperationQueue.OP_READ_CHARACTERISTIC, BluetoothGatt.GATT_SUCCESS);
+        assertEquals(2, started.size());
+        assertSame(b, started.get(1));
+        queue.onComplete(GattOperationQueue.OP_READ_CHARACTERISTIC, BluetoothGatt.GATT_SUCCESS);
+        assertEquals(2, queue.getCompleted());
+        assertEquals(0, queue.getPendingCount());
+        // Only the timeout of each read was posted and both were cancelled
+        assertTrue(posted.isEmpty());
+    }
+
+    @Test
+    public void callbackOfAnotherType_isIgnored() {
+        queue.readCharacteristic(characteristic());
+        queue.onComplete(GattOperationQueue.OP_WRITE_CHARACTERISTIC, BluetoothGatt.GATT_SUCCESS);
+        assertEquals(0, queue.getCompleted());
+        assertEquals(1, queue.getPendingCount());
+    }
+
+    @Test
+    public void lateCallbackAfterTimeout_doesNotStartTheNextOperationTwice() {
+        BluetoothGattCharacteristic a = characteristic();
+        BluetoothGattCharacteristic b = characteristic();
+        queue.readCharacteristic(a);
+        queue.readCharacteristic(b);
+
+        // a times out and its retry is posted
+        runPosted();
+        assertEquals(1, queue.getTimeouts());
+        assertEquals(1, posted.size());
+
+        // The callback of the first attempt arrives before the retry runs
+        queue.onComplete(GattOperationQueue.OP_READ_CHARACTERISTIC, BluetoothGatt.GATT_SUCCESS);
+        assertEquals(0, queue.getCompleted());
+        assertEquals(1, started.size());
+
+        // The retry starts a again, not b
+        runPosted();
+        assertEquals(2, started.size());
+        assertSame(a, started.get(1));
+
+        queue.onComplete(GattOperationQueue.OP_READ_CHARACTERISTIC, BluetoothGatt.GATT_SUCCESS);
+        assertEquals(1, queue.getCompleted());
+        assertEquals(3, started.size());
+        assertSame(b, started.get(2));
+        // Only the timeout of b is left
+        assertEquals(1, posted.size());
+        queue.onComplete(GattOperationQueue.OP_READ_CHARACTERISTIC, BluetoothGatt.GATT_SUCCESS);
+        assertEquals(2, queue.getCompleted());
+        assertEquals(3, started.size());
+        assertTrue(posted.isEmpty());
+    }
+
+    @Test
+    public void refusedOperation_isDroppedAfterItsRetries() {
+        refuse = true;
+        queue.readCharacteristic(characteristic());
+        BluetoothGattCharacteristic b = characteristic();
+        queue.readCharacteristic(b);
+        // a is tried three times and dropped, then b is tried once
+        runPosted();
+        runPosted();
+        assertEquals(4, started.size());
+        assertEquals(1, queue.getFailed());
+        refuse = false;
+        runPosted();
+        assertEquals(5, started.size());
+        assertSame(b, started.get(started.size() - 1));
+        assertEquals(1, queue.getPendingCount());
+    }
+
+    @Test
+    public void clear_dropsRunningAndPendingOperations() {
+        queue.readCharacteristic(characteristic());
+        queue.readCharacteristic(characteristic());
+        queue.clear();
+        assertEquals(0, queue.getPendingCount());
+        assertEquals(2, queue.getFailed());
+        assertTrue(posted.isEmpty());
+        queue.onComplete(GattOperationQueue.OP_READ_CHARACTERISTIC, BluetoothGatt.GATT_SUCCESS);
+        assertEquals(0, queue.getCompleted());
+    }
+}
@@ -0,0 +1,92 @@
+package emgsignal.v3.Decoder;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class FrameDecoderTest {
+
+    private static byte[] encode(int[] samples) {
+        byte[] frame = new byte[samples.length * 2];
+        for (int i = 0; i < samples.length; i++) {
+            frame[i * 2] = (byte) (samples[i] & 0x3f);
+            frame[i * 2 + 1] = (byte) ((samples[i] >> 6) & 0x3f);
+        }
+        return frame;
+    }
+
+    @Test
+    public void decode_fullFrame() {
+        int[] samples = new int[20];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = i * 200 + 7;
+        }
+        FrameDecoder decoder = new FrameDecoder();
+        short[] dst = new short[20];
+        assertEquals(20, decoder.decode(encode(samples), 40, dst, 0));
+        for (int i = 0; i < samples.length; i++) {
+            assertEquals(samples[i], dst[i]);
+        }
+        assertEquals(0, decoder.getMalformedFrames());
+    }
+
+    @Test
+    public void decode_matchesLegacyFormula() {
+        byte[] frame = {(byte) 0xff, (byte) 0xc1, 0x3f, 0x3f, (byte) 0x80, 0x00};
+        FrameDecoder decoder = new FrameDecoder();
+        short[] dst = new short[3];
+        assertEquals(3, decoder.decode(frame, frame.length, dst, 0));
+        for (int i = 0; i < 3; i++) {
+            int legacy = (frame[i * 2] & 0xff & 0x3f) + (frame[i * 2 + 1] & 0xff & 0x3f) * 64;
+            assertEquals(legacy, dst[i]);
+        }
+        assertEquals(1, decoder.getInvalidFrames());
+    }
+
+    @Test
+    public void decode_shortAndOddFrames() {
+        FrameDecoder decoder = new FrameDecoder();
+        short[] dst = new short[4];
+        assertEquals(0, decoder.decode(new byte[0], 0, dst, 0));
+        assertEquals(1, decoder.decode(encode(new int[]{4095, 1}), 3, dst, 1));
+        assertEquals(4095, dst[1]);
+        assertEquals(1, decoder.getEmptyFrames());
+        assertEquals(1, decoder.getOddLengthFrames());
+        assertEquals(2, decoder.getMalformedFrames());
+    }
+
+    @Test
+    public void decode_strictRejectsInvalidBytes() {
+        FrameDecoder decoder = new FrameDecoder(true);
+        short[] dst = new short[2];
+        assertEquals(0, decoder.decode(new byte[]{0x40, 0x00, 0x01, 0x01}, 4, dst, 0));
+        assertEquals(1, decoder.getInvalidFrames());
+        assertEquals(0, decoder.getSamples());
+    }
+
+    @Test
+    public void decode_byteBuffer() {
+        ByteBuffer buffer = ByteBuffer.wrap(encode(new int[]{100, 2000, 3000}));
+        FrameDecoder decoder = new FrameDecoder();
+        short[] dst = new short[3];
+        assertEquals(3, decoder.decode(buffer, dst, 0));
+        assertArrayEquals(new short[]{100, 2000, 3000}, dst);
+        assertFalse(buffer.hasRemaining());
+    }
+
+    @Test
+    public void decode_interleavedChannels() {
+        FrameDecoder decoder = new FrameDecoder(4, false);
+        short[] dst = new short[8];
+        assertEquals(8, decoder.decode(encode(new int[]{1, 2, 3, 4, 5, 6, 7, 8}), 16, dst, 0));
+        assertEquals(0, decoder.decode(encode(new int[]{1, 2, 3, 4, 5, 6}), 12, dst, 0));
+        assertEquals(1, decoder.getMisalignedFrames());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void decode_destinationTooSmall() {
+        new FrameDecoder().decode(new byte[40], 40, new short[10], 0);
+    }
+}
@@ -0,0 +1,153 @@
+package emgsignal.v3.SignalProcessing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BiquadCascadeTest {
+
+    // Output of the direct-form filter of IIR_Filter as the live path used to run it
+    private static double[] reference50Hz(double[] x) {
+        IIR_Filter filter = new IIR_Filter();
+        double[] in = new double[11];
+        double[] out = new double[10];
+        double[] y = new double[x.length];
+        for (int k = 0; k < x.length; k++) {
+            filter.update_input_filter_array50Hz(in, x[k]);
+            y[k] = filter.filter50Hz(in, out);
+            filter.update_output_filter_array50Hz(out, y[k]);
+        }
+        return y;
+    }
+
+    private static double[] reference10Hz(double[] x) {
+        IIR_Filter filter = new IIR_Filter();
+        double[] in = new double[5];
+        double[] out = new double[4];
+        double[] y = new double[x.length];
+        for (int k = 0; k < x.length; k++) {
+            filter.update_input_filter_array10Hz(in, x[k]);
+            y[k] = filter.filter10Hz(in, out);
+            filter.update_output_filter_array10Hz(out, y[k]);
+        }
+        return y;
+    }
+
+    private static double[] impulse(int n) {
+        double[] x = new double[n];
+        x[0] = 1;
+        return x;
+    }
+
+    private static double[] sine(double f, double amplitude, int n) {
+        double[] x = new double[n];
+        for (int k = 0; k < n; k++) {
+            x[k] = amplitude * Math.sin(2 * Math.PI * f * k / 1000.0);
+        }
+        return x;
+    }
+
+    private static void assertImpulseResponse(double[] expected, BiquadCascade cascade, double tolerance) {
+        for (int k = 0; k < expected.length; k++) {
+            assertEquals("sample " + k, expected[k], cascade.process((float) (k == 0 ? 1 : 0)), tolerance);
+        }
+    }
+
+    @Test
+    public void impulse50Hz_matchesDirectForm() {
+        IIR_Filter filter = new IIR_Filter();
+        double[][] sos = filter.sections50Hz();
+        assertEquals(5, sos.length);
+        double[] expected = reference50Hz(impulse(4000));
+        // Peak of the impulse response is b0 = 0.9
+        assertImpulseResponse(expected, new BiquadCascade(sos), 2e-4);
+        assertEquals(0, expected[expected.length - 1], 1e-9);
+    }
+
+    @Test
+    public void impulse10Hz_matchesDirectForm() {
+        double[][] sos = new IIR_Filter().sections10Hz();
+        assertEquals(2, sos.length);
+        // Peak of the impulse response is about 0.024
+        assertImpulseResponse(reference10Hz(impulse(4000)), new BiquadCascade(sos), 2e-6);
+    }
+
+    @Test
+    public void sections_areStable() {
+        double[][][] designs = {new IIR_Filter().sections50Hz(), new IIR_Filter().sections10Hz()};
+        for (double[][] sos : designs) {
+            for (double[] section : sos) {
+                // Poles inside the unit circle: |a2| < 1 and |a1| < 1 + a2
+                assertTrue(Math.abs(section[4]) < 1);
+                assertTrue(Math.abs(section[3]) < 1 + section[4]);
+            }
+        }
+    }
+
+    @Test
+    public void float_errorIsBounded() {
+        int n = 4000;
+        double amplitude = 2000;
+        for (double f : new double[]{20, 50, 150, 400}) {
+            double[] x = sine(f, amplitude, n);
+            double[] expected = reference50Hz(x);
+            float[] y = new float[n];
+            for (int k = 0; k < n; k++) {
+                y[k] = (float) x[k];
+            }
+            BiquadCascade cascade = new BiquadCascade(new IIR_Filter().sections50Hz());
+            cascade.process(y, 0, y, 0, n);
+            for (int k = 0; k < n; k++) {
+                assertEquals(f + " Hz sample " + k, expected[k], y[k], amplitude * 1e-3);
+            }
+        }
+    }
+
+    @Test
+    public void block_matchesSampleBySample() {
+        double[][] sos = new IIR_Filter().sections50Hz();
+        BiquadCascade block = new BiquadCascade(sos);
+        BiquadCascade single = new BiquadCascade(sos);
+        double[] x = sine(37, 500, 300);
+        float[] in = new float[x.length];
+        for (int k = 0; k < x.length; k++) {
+            in[k] = (float) (x[k] + 1000);
+        }
+        float[] out = new float[x.length];
+        // Uneven blocks carry the state across calls; the second one runs in place at an offset
+        block.process(in, 0, out, 0, 7);
+        System.arraycopy(in, 7, out, 7, x.length - 7);
+        block.process(out, 7, out, 7, x.length - 7);
+        for (int k = 0; k < x.length; k++) {
+            assertEquals(single.process(in[k]), out[k], 0);
+        }
+    }
+
+    @Test
+    public void reset_startsInSteadyState() {
+        BiquadCascade cascade = new BiquadCascade(new IIR_Filter().sections50Hz());
+        cascade.reset(1500);
+        float first = cascade.process(1500f);
+        // Float coefficients move the DC gain slightly off 1, but there is no transient
+        assertEquals(1500, first, 0.5);
+        for (int k = 0; k < 100; k++) {
+            assertEquals(first, cascade.process(1500f), 0.01);
+        }
+        cascade.reset();
+        assertEquals(0.903314273613301, cascade.process(1f), 1e-6);
+    }
+
+    @Test
+    public void fromTransferFunction_secondOrderIsUnchanged() {
+        double[] b = {0.2, 0.3, 0.1};
+        double[] a = {-0.5, 0.25};
+        double[][] sos = BiquadCascade.fromTransferFunction(b, a);
+        assertEquals(1, sos.length);
+        assertArrayEquals(new double[]{0.2, 0.3, 0.1, -0.5, 0.25}, sos[0], 1e-12);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void fromTransferFunction_rejectsMismatchedLengths() {
+        BiquadCascade.fromTransferFunction(new double[]{1, 2}, new double[]{0.5, 0.1});
+    }
+}
@@ -0,0 +1,51 @@
+package emgsignal.v3.SignalProcessing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DetrendTest {
+
+    @Test
+    public void detrend_removesLine() {
+        double[] x = new double[200];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = 3.5 * i - 40 + 10 * Math.sin(2 * Math.PI * i / 20.0);
+        }
+        double[] y = Detrend.detrend(x);
+        double mean = 0;
+        double slope = 0;
+        for (int i = 0; i < y.length; i++) {
+            mean += y[i];
+            slope += (i - 99.5) * y[i];
+        }
+        assertEquals(0, mean / y.length, 1e-9);
+        assertEquals(0, slope, 1e-6);
+        // The input is left alone
+        assertEquals(-40, x[0], 0);
+    }
+
+    @Test
+    public void detrend_inPlaceAtOffset() {
+        double[] x = new double[50];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = 1000 + 2 * i + (i % 3);
+        }
+        double[] part = new double[30];
+        System.arraycopy(x, 10, part, 0, 30);
+        double[] expected = Detrend.detrend(part);
+        double before = x[9];
+        double after = x[40];
+        Detrend.detrend(x, 10, x, 10, 30);
+        for (int i = 0; i < 30; i++) {
+            assertEquals(expected[i], x[10 + i], 1e-9);
+        }
+        assertEquals(before, x[9], 0);
+        assertEquals(after, x[40], 0);
+    }
+
+    @Test
+    public void detrend_singleSampleGoesToZero() {
+        assertArrayEquals(new double[]{0}, Detrend.detrend(new double[]{7}), 0);
+    }
+}
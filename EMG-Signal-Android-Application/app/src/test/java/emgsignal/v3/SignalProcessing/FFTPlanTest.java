@@ -0,0 +1,99 @@
+package emgsignal.v3.SignalProcessing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FFTPlanTest {
+
+    @Test
+    public void forLength_reusesPlans() {
+        FFTPlan.clearCache();
+        long misses = FFTPlan.getCacheMisses();
+        long hits = FFTPlan.getCacheHits();
+        FFTPlan plan = FFTPlan.forLength(1000);
+        // The Bluestein plan also builds the power of 2 plan it runs on
+        assertEquals(misses + 2, FFTPlan.getCacheMisses());
+        assertSame(plan, FFTPlan.forLength(1000));
+        assertEquals(hits + 1, FFTPlan.getCacheHits());
+        assertEquals(1000, plan.getLength());
+    }
+
+    @Test
+    public void forLength_dropsLeastRecentlyUsed() {
+        FFTPlan.clearCache();
+        FFTPlan first = FFTPlan.forLength(2);
+        for (int n = 4; n <= 1 << 17; n *= 2) {
+            FFTPlan.forLength(n);
+        }
+        assertNotSame(first, FFTPlan.forLength(2));
+    }
+
+    @Test
+    public void cache_boundedByTableSize() {
+        FFTPlan.clearCache();
+        FFTPlan first = FFTPlan.forLength(1 << 17);
+        FFTPlan.forLength(1 << 18);
+        // About 1.2 million table values do not fit, the oldest went
+        assertNotSame(first, FFTPlan.forLength(1 << 17));
+        // Too large to keep at all
+        assertNotSame(FFTPlan.forLength(1 << 19), FFTPlan.forLength(1 << 19));
+    }
+
+    @Test
+    public void transform_bluesteinReusesWorkArraysOfOtherLengths() {
+        // The longer transform leaves its values in the work arrays of this thread
+        FFTPlan.forLength(1000).transform(new double[1000], filled(1000));
+        for (int n : new int[]{37, 300}) {
+            double[] re = filled(n);
+            double[] im = new double[n];
+            FFTPlan.forLength(n).transform(re, im);
+            for (int k = 0; k < n; k++) {
+                double dftRe = 0, dftIm = 0;
+                for (int t = 0; t < n; t++) {
+                    double x = Math.sin(0.3 * t) + 0.1 * t;
+                    dftRe += x * Math.cos(2 * Math.PI * k * t / n);
+                    dftIm -= x * Math.sin(2 * Math.PI * k * t / n);
+                }
+                assertEquals("n = " + n, dftRe, re[k], 1e-9);
+                assertEquals("n = " + n, dftIm, im[k], 1e-9);
+            }
+        }
+    }
+
+    private static double[] filled(int n) {
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = Math.sin(0.3 * i) + 0.1 * i;
+        }
+        return x;
+    }
+
+    @Test
+    public void transform_sameResultEveryCall() {
+        int n = 300;
+        double[] re = new double[n];
+        double[] im = new double[n];
+        for (int i = 0; i < n; i++) {
+            re[i] = Math.sin(0.3 * i) + 0.1 * i;
+        }
+        double dc = 0;
+        for (double v : re) {
+            dc += v;
+        }
+        double[] re2 = re.clone();
+        double[] im2 = im.clone();
+        FFTPlan plan = FFTPlan.forLength(n);
+        plan.transform(re, im);
+        plan.transform(re2, im2);
+        assertArrayEquals(re, re2, 0);
+        assertArrayEquals(im, im2, 0);
+        assertEquals(dc, re[0], 1e-9);
+        assertEquals(0, im[0], 1e-9);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void transform_rejectsShortArrays() {
+        FFTPlan.forLength(16).transform(new double[8], new double[16]);
+    }
+}
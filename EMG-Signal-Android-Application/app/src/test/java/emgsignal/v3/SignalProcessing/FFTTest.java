@@ -0,0 +1,78 @@
+package emgsignal.v3.SignalProcessing;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FFTTest {
+
+    // {re, im} of the DFT sum, bins 0 to n - 1
+    private static double[][] dft(double[] re, double[] im) {
+        int n = re.length;
+        double[][] y = new double[2][n];
+        for (int k = 0; k < n; k++) {
+            for (int t = 0; t < n; t++) {
+                double c = Math.cos(2 * Math.PI * k * t / n), s = Math.sin(2 * Math.PI * k * t / n);
+                y[0][k] += re[t] * c + im[t] * s;
+                y[1][k] += im[t] * c - re[t] * s;
+            }
+        }
+        return y;
+    }
+
+    private static double[] random(int n, long seed) {
+        Random random = new Random(seed);
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = random.nextGaussian();
+        }
+        return x;
+    }
+
+    @Test
+    public void transform_matchesDft() {
+        for (int n : new int[]{1, 2, 8, 64, 12, 45, 100}) {
+            double[] re = random(n, n);
+            double[] im = random(n, n + 1);
+            double[][] expected = dft(re, im);
+            FFT.transform(re, im);
+            assertArrayEquals("re, n = " + n, expected[0], re, 1e-9);
+            assertArrayEquals("im, n = " + n, expected[1], im, 1e-9);
+        }
+    }
+
+    @Test
+    public void realTransform_matchesDft() {
+        for (int n : new int[]{1, 2, 4, 6, 64, 63, 100, 250}) {
+            double[] x = random(n + 3, n);
+            double[] part = new double[n];
+            System.arraycopy(x, 3, part, 0, n);
+            double[][] expected = dft(part, new double[n]);
+            double[] re = new double[n / 2 + 1];
+            double[] im = new double[n / 2 + 1];
+            FFT.realTransform(x, 3, n, re, im);
+            for (int k = 0; k <= n / 2; k++) {
+                assertEquals("re, n = " + n + ", k = " + k, expected[0][k], re[k], 1e-9);
+                assertEquals("im, n = " + n + ", k = " + k, expected[1][k], im[k], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void absRealFFT_isHalfOfAbsFFT() {
+        double[] x = random(128, 7);
+        double[] full = FFT.absFFT(FFT.transform(x));
+        double[] half = FFT.absRealFFT(x);
+        assertEquals(65, half.length);
+        for (int k = 0; k < half.length; k++) {
+            assertEquals(full[k], half[k], 1e-12);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void realTransform_rejectsShortOutput() {
+        FFT.realTransform(new double[8], 0, 8, new double[4], new double[5]);
+    }
+}
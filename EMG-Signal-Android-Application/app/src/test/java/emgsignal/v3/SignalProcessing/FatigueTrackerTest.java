@@ -0,0 +1,73 @@
+package emgsignal.v3.SignalProcessing;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FatigueTrackerTest {
+    private static final int FS = 1000;
+
+    @Test
+    public void add_estimatesOncePerHopAfterTheWindow() {
+        FatigueTracker tracker = new FatigueTracker(1000, 250, FS);
+        int estimates = 0;
+        for (int i = 0; i < 3000; i++) {
+            boolean ready = tracker.add(Math.sin(0.3 * i));
+            if (i < 999) {
+                assertFalse(ready);
+            }
+            if (ready) {
+                assertEquals(0, (i - 999) % 250);
+                estimates++;
+            }
+        }
+        assertEquals(9, estimates);
+        assertTrue(tracker.getComputeNanos() > 0);
+    }
+
+    @Test
+    public void frequencies_followDownwardShift() {
+        // Band-limited noise whose centre drops from 120 Hz to 60 Hz after 3 s, as in fatigue
+        Random random = new Random(5);
+        FatigueTracker tracker = new FatigueTracker(1000, 250, FS);
+        double phase = 0;
+        double last = Double.NaN;
+        for (int i = 0; i < 6000; i++) {
+            double centre = i < 3000 ? 120 : 60;
+            phase += 2 * Math.PI * (centre + 10 * random.nextGaussian()) / FS;
+            if (tracker.add(Math.sin(phase))) {
+                if (i == 2999) {
+                    assertEquals(120, tracker.getMedianFrequency(), 10);
+                    assertEquals(120, tracker.getMeanFrequency(), 10);
+                }
+                last = tracker.getMedianFrequency();
+            }
+        }
+        assertEquals(60, last, 10);
+    }
+
+    @Test
+    public void silence_givesNaN() {
+        FatigueTracker tracker = new FatigueTracker(64, 16, FS);
+        for (int i = 0; i < 64; i++) {
+            tracker.add(0);
+        }
+        assertTrue(Double.isNaN(tracker.getMedianFrequency()));
+    }
+
+    @Test
+    public void reset_waitsForAFullWindowAgain() {
+        FatigueTracker tracker = new FatigueTracker(100, 50, FS);
+        for (int i = 0; i < 100; i++) {
+            tracker.add(i % 7);
+        }
+        tracker.reset();
+        assertTrue(Double.isNaN(tracker.getMeanFrequency()));
+        for (int i = 0; i < 99; i++) {
+            assertFalse(tracker.add(i % 7));
+        }
+        assertTrue(tracker.add(1));
+    }
+}
@@ -0,0 +1,103 @@
+package emgsignal.v3.SignalProcessing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FilterDesignerTest {
+
+    // |H(f)| of the sections, evaluated in double
+    private static double magnitude(double[][] sos, double f, double fs) {
+        double w = 2 * Math.PI * f / fs;
+        double hr = 1, hi = 0;
+        for (double[] s : sos) {
+            double nr = s[0] + s[1] * Math.cos(w) + s[2] * Math.cos(2 * w);
+            double ni = -s[1] * Math.sin(w) - s[2] * Math.sin(2 * w);
+            double dr = 1 + s[3] * Math.cos(w) + s[4] * Math.cos(2 * w);
+            double di = -s[3] * Math.sin(w) - s[4] * Math.sin(2 * w);
+            double d = dr * dr + di * di;
+            double qr = (nr * dr + ni * di) / d;
+            double qi = (ni * dr - nr * di) / d;
+            double t = hr * qr - hi * qi;
+            hi = hr * qi + hi * qr;
+            hr = t;
+        }
+        return Math.hypot(hr, hi);
+    }
+
+    @Test
+    public void mainsBandStop_matchesHardCodedFilter() {
+        double[][] designed = FilterDesigner.mainsBandStop(50, 1000);
+        double[][] hardCoded = new IIR_Filter().sections50Hz();
+        assertEquals(5, designed.length);
+        for (double f = 1; f < 500; f += 0.5) {
+            assertEquals(f + " Hz", magnitude(hardCoded, f, 1000), magnitude(designed, f, 1000), 1e-3);
+        }
+    }
+
+    @Test
+    public void envelopeLowPass_matchesHardCodedFilter() {
+        double[][] designed = FilterDesigner.envelopeLowPass(1000);
+        double[][] hardCoded = new IIR_Filter().sections10Hz();
+        for (double f = 0.5; f < 500; f += 0.5) {
+            assertEquals(f + " Hz", magnitude(hardCoded, f, 1000), magnitude(designed, f, 1000), 1e-4);
+        }
+    }
+
+    @Test
+    public void mainsBandStop_followsFsAndMains() {
+        double[][] sos = FilterDesigner.mainsBandStop(60, 2000);
+        assertEquals(0, magnitude(sos, 60, 2000), 1e-5);
+        assertEquals(Math.sqrt(0.5), magnitude(sos, 55, 2000), 1e-6);
+        assertEquals(Math.sqrt(0.5), magnitude(sos, 65, 2000), 1e-6);
+        assertEquals(1, magnitude(sos, 200, 2000), 1e-4);
+    }
+
+    @Test
+    public void butterworthBandPass_edgesAtHalfPower() {
+        double[][] sos = FilterDesigner.butterworthBandPass(4, 20, 450, 2000);
+        assertEquals(4, sos.length);
+        assertEquals(Math.sqrt(0.5), magnitude(sos, 20, 2000), 1e-9);
+        assertEquals(Math.sqrt(0.5), magnitude(sos, 450, 2000), 1e-9);
+        assertEquals(1, magnitude(sos, 100, 2000), 1e-6);
+        assertTrue(magnitude(sos, 5, 2000) < 0.01);
+    }
+
+    @Test
+    public void chebyshevBandPass_staysWithinRipple() {
+        double ripple = Math.pow(10, -1 / 20.0);
+        for (int order = 3; order <= 4; order++) {
+            double[][] sos = FilterDesigner.chebyshevBandPass(order, 1, 20, 450, 2000);
+            assertEquals(ripple, magnitude(sos, 20, 2000), 1e-9);
+            for (double f = 20; f <= 450; f += 5) {
+                double m = magnitude(sos, f, 2000);
+                assertTrue(f + " Hz", m >= ripple - 1e-9 && m <= 1 + 1e-9);
+            }
+            // Steeper than the Butterworth of the same order
+            assertTrue(magnitude(sos, 10, 2000) < magnitude(FilterDesigner.butterworthBandPass(order, 20, 450, 2000), 10, 2000));
+        }
+    }
+
+    @Test
+    public void notch_removesOnlyItsFrequency() {
+        double[][] sos = FilterDesigner.notch(60, 30, 2000);
+        assertEquals(1, sos.length);
+        assertEquals(0, magnitude(sos, 60, 2000), 1e-9);
+        assertEquals(1, magnitude(sos, 10, 2000), 1e-3);
+        assertEquals(1, magnitude(sos, 500, 2000), 1e-3);
+    }
+
+    @Test
+    public void designs_areCached() {
+        double[][] first = FilterDesigner.butterworthLowPass(3, 15, 1500);
+        long hits = FilterDesigner.getCacheHits();
+        assertSame(first, FilterDesigner.butterworthLowPass(3, 15, 1500));
+        assertEquals(hits + 1, FilterDesigner.getCacheHits());
+        assertNotSame(first, FilterDesigner.butterworthLowPass(3, 15, 1000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void design_rejectsEdgeAboveNyquist() {
+        FilterDesigner.butterworthBandPass(4, 20, 600, 1000);
+    }
+}
@@ -0,0 +1,60 @@
+package emgsignal.v3.SignalProcessing;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class MovingRmsTest {
+
+    @Test
+    public void process_matchesWindowedRms() {
+        int window = 37;
+        MovingRms rms = new MovingRms(window);
+        Random random = new Random(1);
+        double[] x = new double[1000];
+        for (int k = 0; k < x.length; k++) {
+            x[k] = random.nextGaussian() * 100;
+            double sum = 0;
+            int from = Math.max(0, k - window + 1);
+            for (int i = from; i <= k; i++) {
+                sum += x[i] * x[i];
+            }
+            assertEquals("sample " + k, Math.sqrt(sum / (k - from + 1)), rms.process(x[k]), 1e-9);
+        }
+    }
+
+    @Test
+    public void sine_givesAmplitudeOverRootTwo() {
+        MovingRms rms = new MovingRms(100);
+        double last = 0;
+        for (int k = 0; k < 1000; k++) {
+            last = rms.process(500 * Math.sin(2 * Math.PI * 50 * k / 1000.0));
+        }
+        assertEquals(500 / Math.sqrt(2), last, 1e-6);
+    }
+
+    @Test
+    public void longRun_doesNotDrift() {
+        MovingRms rms = new MovingRms(100);
+        // A burst far above the rest leaves rounding in a plain running sum
+        for (int k = 0; k < 1000; k++) {
+            rms.process(1e7);
+        }
+        float[] block = new float[5000];
+        for (int k = 0; k < block.length; k++) {
+            block[k] = 0.001f;
+        }
+        rms.process(block, 0, block, 0, block.length);
+        assertEquals(0.001, block[block.length - 1], 1e-9);
+    }
+
+    @Test
+    public void reset_forgetsHistory() {
+        MovingRms rms = new MovingRms(10);
+        rms.process(100);
+        rms.reset();
+        assertEquals(3, rms.process(-3), 0);
+    }
+}
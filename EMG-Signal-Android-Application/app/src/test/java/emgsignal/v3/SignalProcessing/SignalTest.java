@@ -0,0 +1,95 @@
+package emgsignal.v3.SignalProcessing;
+
+import org.apache.commons.math3.complex.Complex;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SignalTest {
+
+    // One-sided PSD straight from the DFT sum, as MATLAB's periodogram
+    private static double[] reference(double[] x, double[] w, double fs) {
+        int n = x.length;
+        double u = 0;
+        for (double v : w) {
+            u += v * v;
+        }
+        double[] p = new double[n / 2 + 1];
+        for (int k = 0; k < p.length; k++) {
+            double re = 0, im = 0;
+            for (int t = 0; t < n; t++) {
+                re += x[t] * w[t] * Math.cos(2 * Math.PI * k * t / n);
+                im -= x[t] * w[t] * Math.sin(2 * Math.PI * k * t / n);
+            }
+            p[k] = (re * re + im * im) / (u * fs);
+            if (k > 0 && (n % 2 != 0 || k < n / 2)) {
+                p[k] *= 2;
+            }
+        }
+        return p;
+    }
+
+    private static double[] signal(int n) {
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = Math.sin(2 * Math.PI * 0.1 * i) + 0.3 * Math.cos(2 * Math.PI * 0.27 * i) + 0.2;
+        }
+        return x;
+    }
+
+    @Test
+    public void periodogram_matchesDft() {
+        for (int n : new int[]{64, 63}) {
+            double[] x = signal(n);
+            double[] w = Signal.kaiser(n, 5);
+            assertArrayEquals("n = " + n, reference(x, w, 1000), Signal.periodogram(x, w, 1000), 1e-9);
+        }
+    }
+
+    @Test
+    public void periodogram_inPlaceAtOffset() {
+        int n = 64;
+        double[] buffer = new double[100];
+        double[] x = signal(n);
+        System.arraycopy(x, 0, buffer, 20, n);
+        double[] w = Signal.kaiser(n, 5);
+        Periodogram periodogram = new Periodogram(w, 1000);
+        assertEquals(33, periodogram.process(buffer, 20, buffer, 20));
+        double[] expected = Signal.periodogram(x, w, 1000);
+        for (int k = 0; k < expected.length; k++) {
+            assertEquals(expected[k], buffer[20 + k], 1e-12);
+        }
+    }
+
+    @Test
+    public void absAndDb_blocksMatchArrays() {
+        Complex[] fft = FFT.transform(signal(32));
+        double[] abs = FFT.absFFT(fft);
+        double[] db = FFT.dbFFT(abs);
+        double[] re = MyComplex.toRealArray(fft);
+        double[] im = MyComplex.toImagArray(fft);
+        double[] buffer = new double[40];
+        FFT.absFFT(re, im, 2, buffer, 5, 10, 32);
+        FFT.dbFFT(buffer, 5, buffer, 5, 10);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(db[2 + i], buffer[5 + i], 1e-12);
+            assertEquals(fft[2 + i].abs() / 32, abs[2 + i], 1e-12);
+        }
+    }
+
+    @Test
+    public void periodogram_reusedForBlocksOfAnyLength() {
+        for (int n : new int[]{64, 63, 1000}) {
+            double[] x = signal(3 * n);
+            double[] w = Signal.kaiser(n, 5);
+            Periodogram periodogram = new Periodogram(w, 1000);
+            double[] psd = new double[periodogram.getBins()];
+            for (int block = 0; block < 3; block++) {
+                double[] segment = new double[n];
+                System.arraycopy(x, block * n, segment, 0, n);
+                assertEquals(n / 2 + 1, periodogram.process(x, block * n, psd, 0));
+                assertArrayEquals("n = " + n, reference(segment, w, 1000), psd, 1e-9);
+            }
+        }
+    }
+}
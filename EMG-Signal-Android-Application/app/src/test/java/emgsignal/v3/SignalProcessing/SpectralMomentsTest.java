@@ -0,0 +1,29 @@
+package emgsignal.v3.SignalProcessing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SpectralMomentsTest {
+
+    @Test
+    public void meanFrequency_isPowerWeighted() {
+        // Power 1 at 10 Hz and 3 at 30 Hz
+        double[] psd = {0, 1, 0, 3};
+        assertEquals(4, SpectralMoments.total(psd), 0);
+        assertEquals(25, SpectralMoments.meanFrequency(psd, 10), 1e-12);
+    }
+
+    @Test
+    public void medianFrequency_splitsThePowerInHalf() {
+        double[] psd = {1, 1, 1, 1, 5};
+        assertEquals(4 * 2.5, SpectralMoments.medianFrequency(psd, 2.5), 0);
+        assertEquals(1 * 2.5, SpectralMoments.medianFrequency(new double[]{1, 1, 1, 1}, 2.5), 0);
+    }
+
+    @Test
+    public void emptySpectrum() {
+        assertEquals(0, SpectralMoments.medianFrequency(new double[4], 1), 0);
+        assertTrue(Double.isNaN(SpectralMoments.meanFrequency(new double[4], 1)));
+    }
+}
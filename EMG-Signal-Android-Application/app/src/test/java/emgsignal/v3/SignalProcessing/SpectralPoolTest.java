@@ -0,0 +1,116 @@
+package emgsignal.v3.SignalProcessing;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SpectralPoolTest {
+    private static final double FS = 1000;
+
+    private static double[] noise(int n) {
+        Random random = new Random(5);
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = random.nextGaussian() + Math.sin(2 * Math.PI * 80 * i / FS);
+        }
+        return x;
+    }
+
+    @Test
+    public void welch_matchesSequential() throws InterruptedException {
+        double[] x = noise(50000);
+        WelchPsd sequential = new WelchPsd(256, FS);
+        sequential.add(x, 0, x.length);
+        SpectralPool pool = new SpectralPool(3);
+        try {
+            double[] psd = pool.welch(x, 256, FS);
+            double[] expected = sequential.getPsd();
+            assertEquals(expected.length, psd.length);
+            for (int k = 0; k < psd.length; k++) {
+                assertEquals(expected[k], psd[k], 1e-12 * expected[k]);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void welch_sameForAnyNumberOfThreads() throws InterruptedException {
+        double[] x = noise(40000);
+        double[] first = null;
+        for (int threads = 1; threads <= 4; threads++) {
+            SpectralPool pool = new SpectralPool(threads);
+            try {
+                double[] psd = pool.welch(x, 128, FS);
+                if (first == null) {
+                    first = psd;
+                } else {
+                    assertArrayEquals(first, psd, 0);
+                }
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+
+    @Test
+    public void welch_shorterThanSegmentIsZero() throws InterruptedException {
+        SpectralPool pool = new SpectralPool(2);
+        try {
+            assertArrayEquals(new double[65], pool.welch(new double[100], 128, FS), 0);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void stft_matchesSequentialFrames() throws InterruptedException {
+        double[] x = noise(20000);
+        Stft stft = new Stft(256, 64, FS);
+        SpectralPool pool = new SpectralPool(4);
+        try {
+            double[][] frames = pool.stft(x, 256, 64, FS);
+            assertEquals(stft.getFrames(x.length), frames.length);
+            double[] expected = new double[stft.getBins()];
+            for (int f = 0; f < frames.length; f++) {
+                stft.frame(x, f, expected, 0);
+                assertArrayEquals(expected, frames[f], 0);
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsNoThreads() {
+        new SpectralPool(0);
+    }
+
+    @Test
+    public void benchmark_tenMinutesWithinBudget() throws InterruptedException {
+        // Ten minutes at 1 kHz
+        double[] x = noise(600000);
+        int cores = Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= cores; threads *= 2) {
+            SpectralPool pool = new SpectralPool(threads);
+            try {
+                // Warm up the JIT and the threads first
+                pool.welch(x, 1024, FS);
+                long best = Long.MAX_VALUE;
+                for (int run = 0; run < 3; run++) {
+                    long start = System.nanoTime();
+                    pool.welch(x, 1024, FS);
+                    pool.stft(x, 256, 64, FS);
+                    best = Math.min(best, System.nanoTime() - start);
+                }
+                double ms = best / 1e6;
+                // The analysis screen waits on this; a single thread takes well under 1 s
+                assertTrue("Welch and STFT of 10 min on " + threads + " threads took " + ms + " ms", ms < 5000);
+            } finally {
+                pool.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package emgsignal.v3.SignalProcessing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StftTest {
+    private static final double FS = 1000;
+
+    @Test
+    public void frames_countAndTimes() {
+        Stft stft = new Stft(256, 64, FS);
+        assertEquals(0, stft.getFrames(255));
+        assertEquals(1, stft.getFrames(256));
+        assertEquals(1, stft.getFrames(319));
+        assertEquals(2, stft.getFrames(320));
+        assertEquals(129, stft.getBins());
+        assertEquals(0.128, stft.getFrameTime(0), 1e-12);
+        assertEquals(0.192, stft.getFrameTime(1), 1e-12);
+    }
+
+    @Test
+    public void frame_matchesPeriodogramOfSegment() {
+        double[] x = new double[1000];
+        for (int i = 0; i < x.length; i++) {
+            x[i] = Math.sin(0.05 * i * i / 100.0) + 0.1 * Math.cos(i);
+        }
+        Stft stft = new Stft(128, 50, FS);
+        double[] segment = new double[128];
+        System.arraycopy(x, 3 * 50, segment, 0, 128);
+        double[] column = new double[stft.getBins()];
+        stft.frame(x, 3, column, 0);
+        assertArrayEquals(Signal.periodogram(segment, Signal.hann(128), FS), column, 1e-15);
+    }
+
+    @Test
+    public void frames_followChirp() {
+        // Frequency rising from 50 Hz to 250 Hz over 4 s
+        int n = 4000;
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            double t = i / FS;
+            x[i] = Math.sin(2 * Math.PI * (50 * t + 25 * t * t));
+        }
+        Stft stft = new Stft(256, 128, FS);
+        int frames = stft.getFrames(n);
+        double[][] out = new double[frames][stft.getBins()];
+        stft.frames(x, 0, frames, out);
+        for (int f = 0; f < frames; f++) {
+            double expected = 50 + 50 * stft.getFrameTime(f);
+            double peak = Progressing.indexOfMax(out[f]) * stft.getResolution();
+            assertEquals("frame " + f, expected, peak, 2 * stft.getResolution());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void frame_rejectsFramePastTheEnd() {
+        new Stft(64, 32, FS).frame(new double[100], 2, new double[33], 0);
+    }
+}
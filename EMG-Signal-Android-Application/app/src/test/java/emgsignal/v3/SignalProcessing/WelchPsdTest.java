@@ -0,0 +1,95 @@
+package emgsignal.v3.SignalProcessing;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class WelchPsdTest {
+    private static final double FS = 1000;
+
+    private static double[] noise(int n, double sigma) {
+        Random random = new Random(3);
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = sigma * random.nextGaussian();
+        }
+        return x;
+    }
+
+    @Test
+    public void psd_integratesToVariance() {
+        WelchPsd welch = new WelchPsd(256, FS);
+        double[] x = noise(60000, 2);
+        welch.add(x, 0, x.length);
+        // Hop of 128, the last partial segment is dropped
+        assertEquals((60000 - 256) / 128 + 1, welch.getSegments());
+        double[] psd = welch.getPsd();
+        assertEquals(129, psd.length);
+        double power = 0;
+        for (double p : psd) {
+            power += p * welch.getResolution();
+        }
+        assertEquals(4, power, 0.1);
+        // White noise: flat at 2 sigma^2 / fs away from DC and Nyquist
+        for (int k = 10; k < 120; k++) {
+            assertEquals(2 * 4 / FS, psd[k], 0.004);
+        }
+    }
+
+    @Test
+    public void psd_sameInChunksAsAtOnce() {
+        double[] x = noise(5000, 1);
+        WelchPsd whole = new WelchPsd(128, FS);
+        whole.add(x, 0, x.length);
+        WelchPsd chunked = new WelchPsd(128, FS);
+        int off = 0;
+        for (int chunk = 1; off < x.length; chunk = chunk * 3 % 97 + 1) {
+            int n = Math.min(chunk, x.length - off);
+            chunked.add(x, off, n);
+            off += n;
+        }
+        assertEquals(whole.getSegments(), chunked.getSegments());
+        assertArrayEquals(whole.getPsd(), chunked.getPsd(), 1e-15);
+    }
+
+    @Test
+    public void psd_singleSegmentMatchesPeriodogram() {
+        double[] x = noise(64, 1);
+        double[] w = Signal.hann(64);
+        WelchPsd welch = new WelchPsd(w, 0, FS);
+        for (double v : x) {
+            welch.add(v);
+        }
+        assertEquals(1, welch.getSegments());
+        assertArrayEquals(Signal.periodogram(x, w, FS), welch.getPsd(), 1e-15);
+    }
+
+    @Test
+    public void frequencies_ofTone() {
+        double[] x = noise(20000, 0.01);
+        for (int i = 0; i < x.length; i++) {
+            x[i] += Math.sin(2 * Math.PI * 125 * i / FS);
+        }
+        WelchPsd welch = new WelchPsd(512, FS);
+        welch.add(x, 0, x.length);
+        double[] psd = welch.getPsd();
+        assertEquals(125, SpectralMoments.meanFrequency(psd, welch.getResolution()), 1);
+        assertEquals(125, SpectralMoments.medianFrequency(psd, welch.getResolution()), 2);
+    }
+
+    @Test
+    public void reset_clearsAverage() {
+        WelchPsd welch = new WelchPsd(16, FS);
+        welch.add(noise(100, 1), 0, 100);
+        welch.reset();
+        assertEquals(0, welch.getSegments());
+        assertArrayEquals(new double[9], welch.getPsd(), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsOtherLengths() {
+        new WelchPsd(100, FS);
+    }
+}
@@ -0,0 +1,86 @@
+package emgsignal.v3.SignalProcessing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class WindowsTest {
+
+    // The window as KaiserWindow computed it through the general recurrence
+    private static double kaiserReference(int n, int L, double beta) {
+        double r = (n - (L - 1) / 2.0) / ((L - 1) / 2.0);
+        return BesselI.value(0, beta * Math.sqrt(1 - r * r)) / BesselI.value(0, beta);
+    }
+
+    @Test
+    public void i0_matchesRecurrence() {
+        for (double x : new double[]{0, 1e-5, 0.5, 3, 10, 38, 120, 600}) {
+            double expected = BesselI.value(0, x);
+            assertEquals("x = " + x, expected, BesselI.i0(x), 1e-14 * expected);
+        }
+    }
+
+    @Test
+    public void kaiser_matchesReference() {
+        for (int L : new int[]{2, 7, 64, 1001}) {
+            for (double beta : new double[]{0, 5, 38}) {
+                double[] w = Windows.kaiser(L, beta);
+                for (int n = 0; n < L; n++) {
+                    double expected = kaiserReference(n, L, beta);
+                    assertEquals("L = " + L + ", beta = " + beta + ", n = " + n, expected, w[n], 1e-12 * expected + 1e-300);
+                }
+            }
+        }
+        assertArrayEquals(new double[]{1}, Windows.kaiser(1, 38), 0);
+        assertEquals(0, Windows.kaiser(0, 38).length);
+    }
+
+    @Test
+    public void windows_areSymmetric() {
+        double[] kaiser = Windows.kaiser(999, 38);
+        for (int n = 0; n < kaiser.length; n++) {
+            assertEquals(kaiser[n], kaiser[kaiser.length - 1 - n], 0);
+        }
+        assertEquals(1, kaiser[499], 0);
+        double[] hann = Windows.hann(256);
+        assertEquals(0, hann[0], 0);
+        assertEquals(1, hann[128], 1e-15);
+        for (int n = 1; n < hann.length; n++) {
+            assertEquals(0.5 * (1 - Math.cos(2 * Math.PI * n / 256)), hann[n], 1e-15);
+            assertEquals(hann[n], hann[hann.length - n], 0);
+        }
+    }
+
+    @Test
+    public void cache_reusesWindowsByTypeLengthAndBeta() {
+        Windows.clearCache();
+        long misses = Windows.getCacheMisses();
+        long hits = Windows.getCacheHits();
+        double[] w = Windows.kaiser(500, 38);
+        assertSame(w, Windows.kaiser(500, 38));
+        assertNotSame(w, Windows.kaiser(500, 5));
+        assertNotSame(w, Windows.hann(500));
+        assertEquals(misses + 3, Windows.getCacheMisses());
+        assertEquals(hits + 1, Windows.getCacheHits());
+        // Signal hands out copies
+        assertNotSame(w, Signal.kaiser(500, 38));
+        assertArrayEquals(w, Signal.kaiser(500, 38), 0);
+    }
+
+    @Test
+    public void cache_boundedBySamples() {
+        Windows.clearCache();
+        double[] first = Windows.kaiser(300000, 38);
+        Windows.kaiser(400000, 38);
+        Windows.kaiser(500000, 38);
+        // 1.2 million samples do not fit, the oldest went
+        assertNotSame(first, Windows.kaiser(300000, 38));
+        // Too long to keep at all
+        assertNotSame(Windows.hann(2000000), Windows.hann(2000000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void kaiser_rejectsNegativeBeta() {
+        Windows.kaiser(10, -1);
+    }
+}
@@ -0,0 +1,115 @@
+package emgsignal.v3.SignalProcessing;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ZeroPhaseFilterTest {
+
+    private static final double[][] BAND = FilterDesigner.butterworthBandPass(4, 20, 450, 1000);
+
+    // Straightforward filtfilt on a padded copy, as scipy's sosfiltfilt
+    private static double[] reference(double[][] sos, double[] x) {
+        int pad = Math.min(3 * (2 * sos.length + 1), x.length - 1);
+        int n = x.length + 2 * pad;
+        double[] ext = new double[n];
+        for (int i = 0; i < pad; i++) {
+            ext[i] = 2 * x[0] - x[pad - i];
+            ext[n - 1 - i] = 2 * x[x.length - 1] - x[x.length - 1 - pad + i];
+        }
+        System.arraycopy(x, 0, ext, pad, x.length);
+        pass(sos, ext);
+        reverse(ext);
+        pass(sos, ext);
+        reverse(ext);
+        double[] y = new double[x.length];
+        System.arraycopy(ext, pad, y, 0, x.length);
+        return y;
+    }
+
+    // One causal pass started in the steady state of the first sample
+    private static void pass(double[][] sos, double[] x) {
+        for (double[] c : sos) {
+            double x0 = x[0];
+            double y0 = x0 * (c[0] + c[1] + c[2]) / (1 + c[3] + c[4]);
+            double z2 = c[2] * x0 - c[4] * y0;
+            double z1 = c[1] * x0 - c[3] * y0 + z2;
+            for (int k = 0; k < x.length; k++) {
+                double y = c[0] * x[k] + z1;
+                z1 = c[1] * x[k] - c[3] * y + z2;
+                z2 = c[2] * x[k] - c[4] * y;
+                x[k] = y;
+            }
+        }
+    }
+
+    private static void reverse(double[] x) {
+        for (int i = 0, j = x.length - 1; i < j; i++, j--) {
+            double t = x[i];
+            x[i] = x[j];
+            x[j] = t;
+        }
+    }
+
+    private static double[] signal(int n) {
+        double[] x = new double[n];
+        for (int k = 0; k < n; k++) {
+            x[k] = 300 * Math.sin(2 * Math.PI * 80 * k / 1000.0) + 100 * Math.sin(2 * Math.PI * 3 * k / 1000.0)
+                    + 40 * Math.sin(2 * Math.PI * 470 * k / 1000.0 + 0.3) + 50;
+        }
+        return x;
+    }
+
+    @Test
+    public void filter_matchesPaddedCopy() {
+        // Longer than one chunk, and a short signal shorter than the padding
+        for (int n : new int[]{10000, 2048, 20}) {
+            double[] x = signal(n);
+            double[] expected = reference(BAND, x);
+            new ZeroPhaseFilter(BAND).filter(x);
+            assertArrayEquals("n = " + n, expected, x, 1e-9);
+        }
+    }
+
+    @Test
+    public void filter_hasNoPhaseShift() {
+        int n = 5000;
+        double[] x = new double[n];
+        for (int k = 0; k < n; k++) {
+            x[k] = Math.sin(2 * Math.PI * 100 * k / 1000.0);
+        }
+        double[] y = x.clone();
+        new ZeroPhaseFilter(BAND).filter(y);
+        for (int k = 500; k < n - 500; k++) {
+            assertEquals(x[k], y[k], 1e-3);
+        }
+    }
+
+    @Test
+    public void filter_onlyTouchesRange() {
+        double[] x = signal(3000);
+        double[] y = x.clone();
+        new ZeroPhaseFilter(BAND).filter(y, 1000, 1500);
+        double[] part = new double[1500];
+        System.arraycopy(x, 1000, part, 0, 1500);
+        double[] expected = reference(BAND, part);
+        for (int k = 0; k < 3000; k++) {
+            if (k < 1000 || k >= 2500) {
+                assertEquals(x[k], y[k], 0);
+            } else {
+                assertEquals(expected[k - 1000], y[k], 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void filter_canBeReused() {
+        ZeroPhaseFilter filter = new ZeroPhaseFilter(BAND);
+        double[] a = signal(4000);
+        double[] b = a.clone();
+        filter.filter(signal(1234));
+        filter.filter(a);
+        new ZeroPhaseFilter(BAND).filter(b);
+        assertArrayEquals(b, a, 0);
+    }
+}